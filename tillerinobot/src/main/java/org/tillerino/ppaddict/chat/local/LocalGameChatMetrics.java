@@ -17,4 +17,18 @@ public class LocalGameChatMetrics implements GameChatMetrics {
 	private long lastRecommendation;
 	private long responseQueueSize;
 	private long eventQueueSize;
+	private long samplerCacheHits;
+	private long samplerCacheMisses;
+	private long samplerRefills;
+	private long givenRecommendationsCacheSize;
+	private long givenRecommendationsCacheBytes;
+	private long requestParseCacheHits;
+	private long requestParseCacheMisses;
+	private long requestParseNanos;
+	private long osuApiPermitsPerMinute;
+	private boolean osuApiBackingOff;
+	private long osuApiBackoffs;
+	private OsuApiPermitMetrics osuApiRequestPermits;
+	private OsuApiPermitMetrics osuApiEventPermits;
+	private OsuApiPermitMetrics osuApiMaintenancePermits;
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package org.tillerino.ppaddict.chat.local;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Snapshot of the osu! API permits of one priority for
+ * {@link LocalGameChatMetrics}.
+ */
+@Data
+@NoArgsConstructor
+public class OsuApiPermitMetrics {
+	/**
+	 * Permits which were available right away.
+	 */
+	private long immediate;
+	/**
+	 * Permits which had to be waited for.
+	 */
+	private long blocked;
+	private long blockedMillis;
+	/**
+	 * Permits which are currently available to this priority.
+	 */
+	private long availablePermits;
+	/**
+	 * Number of waits by duration. Always an immutable copy.
+	 */
+	private List<Long> waitHistogram = ImmutableList.of();
+
+	public OsuApiPermitMetrics(long immediate, long blocked, long blockedMillis, long availablePermits,
+			List<Long> waitHistogram) {
+		this.immediate = immediate;
+		this.blocked = blocked;
+		this.blockedMillis = blockedMillis;
+		this.availablePermits = availablePermits;
+		setWaitHistogram(waitHistogram);
+	}
+
+	public void setWaitHistogram(List<Long> waitHistogram) {
+		this.waitHistogram = ImmutableList.copyOf(waitHistogram);
+	}
+}
@@ -154,7 +154,7 @@ public class BeatmapMeta {
         @Override
         public String buildMessage(PercentageEstimates estimates) {
             return format.format(acc * 100) + "%: " +
-                    noDecimalsFormat.format(estimates.getPP(acc)) + "pp";
+                    noDecimalsFormat.format(estimates.getExactPP(acc)) + "pp";
         }
     }
 
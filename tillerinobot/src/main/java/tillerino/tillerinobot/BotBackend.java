@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -21,6 +22,7 @@ import org.tillerino.ppaddict.chat.IRCName;
 import tillerino.tillerinobot.diff.PercentageEstimates;
 import tillerino.tillerinobot.lang.Language;
 import tillerino.tillerinobot.recommendations.BareRecommendation;
+import tillerino.tillerinobot.recommendations.BeatmapIdSet;
 import tillerino.tillerinobot.recommendations.Model;
 
 public interface BotBackend {
@@ -38,6 +40,23 @@ public interface BotBackend {
 	@CheckForNull
 	public BeatmapMeta loadBeatmap(@BeatmapId int beatmapid, @BitwiseMods long mods, Language lang) throws SQLException, IOException, UserException, InterruptedException;
 
+	/**
+	 * Non-blocking version of {@link #loadBeatmap(int, long, Language)}.
+	 * Implementations should override this with
+	 * {@link RateLimitingOsuApiDownloader#getBeatmapAsync(int, long, Class)};
+	 * the default implementation blocks and returns a completed future.
+	 */
+	public default CompletableFuture<BeatmapMeta> loadBeatmapAsync(@BeatmapId int beatmapid, @BitwiseMods long mods, Language lang) {
+		try {
+			return CompletableFuture.completedFuture(loadBeatmap(beatmapid, mods, lang));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return CompletableFuture.failedFuture(e);
+		} catch (SQLException | IOException | UserException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
 	/**
 	 * @param nick
 	 * @return the last version of the bot that was visited by this user. -1 if
@@ -64,6 +83,20 @@ public interface BotBackend {
 	@CheckForNull
 	public OsuApiUser getUser(@UserId int userid, long maxAge) throws SQLException, IOException;
 
+	/**
+	 * Non-blocking version of {@link #getUser(int, long)}. Implementations
+	 * should override this with
+	 * {@link RateLimitingOsuApiDownloader#getUserAsync(int, int, Class)}; the
+	 * default implementation blocks and returns a completed future.
+	 */
+	public default CompletableFuture<OsuApiUser> getUserAsync(@UserId int userid, long maxAge) {
+		try {
+			return CompletableFuture.completedFuture(getUser(userid, maxAge));
+		} catch (SQLException | IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
 	/**
 	 * Registers activity of a user. This information is not historized, i.e. a
 	 * single value is updated and the previous value is therefore erased. This
@@ -102,6 +135,18 @@ public interface BotBackend {
 	public Collection<BareRecommendation> loadRecommendations(@UserId int userid, @Nonnull Collection<Integer> exclude,
 			@Nonnull Model model, boolean nomod, @BitwiseMods long requestMods) throws SQLException, IOException, UserException;
 
+	/**
+	 * will load a sampler. Same as
+	 * {@link #loadRecommendations(int, Collection, Model, boolean, long)}, but
+	 * checking the excluded maps is a cheap probe into a {@link BeatmapIdSet}.
+	 * Implementations should override this; the default implementation passes
+	 * a view of the set to the collection-based method.
+	 */
+	public default Collection<BareRecommendation> loadRecommendations(@UserId int userid, @Nonnull BeatmapIdSet exclude,
+			@Nonnull Model model, boolean nomod, @BitwiseMods long requestMods) throws SQLException, IOException, UserException {
+		return loadRecommendations(userid, exclude.asCollection(), model, nomod, requestMods);
+	}
+
 	/**
 	 * links the given user to a Patreon account using a token string.
 	 * 
@@ -120,6 +165,20 @@ public interface BotBackend {
 	 */
 	@Nonnull public List<OsuApiScore> getRecentPlays(@UserId int userid) throws IOException;
 
+	/**
+	 * Non-blocking version of {@link #getRecentPlays(int)}. Implementations
+	 * should override this with
+	 * {@link RateLimitingOsuApiDownloader#getUserRecentAsync(int, int, Class)};
+	 * the default implementation blocks and returns a completed future.
+	 */
+	public default CompletableFuture<List<OsuApiScore>> getRecentPlaysAsync(@UserId int userid) {
+		try {
+			return CompletableFuture.completedFuture(getRecentPlays(userid));
+		} catch (IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
 	@CheckForNull
 	public OsuApiUser downloadUser(String userName) throws IOException, SQLException;
 
@@ -129,12 +188,30 @@ public interface BotBackend {
 		}
 
 		/**
-		 * Retreives beatmap. Implementation hint: this might be called a *lot* when
-		 * checking recommendation predicates and should probably be cached.
+		 * Retreives beatmap. Implementation hint: this might be called a *lot*
+		 * and should probably be cached.
 		 * 
 		 * @param beatmapId
 		 * @return null if not found
 		 */
 		@CheckForNull OsuApiBeatmap getBeatmap(@BeatmapId int beatmapId, @BitwiseMods long mods) throws SQLException, IOException;
+
+		/**
+		 * Retrieves multiple beatmaps at once. This is used to check
+		 * recommendation predicates for all candidates, so implementations
+		 * should override this to load all beatmaps in a single round-trip.
+		 * The default implementation calls {@link #getBeatmap(int)} for each id.
+		 *
+		 * @param beatmapIds beatmap ids
+		 * @return the beatmaps in the order of the given ids, null entries for
+		 *         beatmaps which were not found
+		 */
+		default @Nonnull OsuApiBeatmap[] getBeatmaps(@Nonnull int[] beatmapIds) throws SQLException, IOException {
+			OsuApiBeatmap[] beatmaps = new OsuApiBeatmap[beatmapIds.length];
+			for (int i = 0; i < beatmapIds.length; i++) {
+				beatmaps[i] = getBeatmap(beatmapIds[i]);
+			}
+			return beatmaps;
+		}
 	}
 }
@@ -2,6 +2,7 @@ package tillerino.tillerinobot;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -79,6 +80,7 @@ public class IRCBot implements GameChatEventConsumer {
 	private final GameChatResponseQueue queue;
 	private final NPHandler npHandler;
 	private final AbstractPpaddictUserDataService<?> ppaddictUserDataService;
+	private final RecommendationRequestParser requestParser;
 	
 	@Inject
 	public IRCBot(BotBackend backend, RecommendationsManager manager,
@@ -96,9 +98,10 @@ public class IRCBot implements GameChatEventConsumer {
 		this.queue = queue;
 		this.npHandler = new NPHandler(backend, liveActivity);
 		this.ppaddictUserDataService = ppaddictUserDataService;
+		this.requestParser = manager.getParser();
 
 		commandHandlers.add(new ResetHandler(manager));
-		commandHandlers.add(new OptionsHandler(new RecommendationRequestParser(backend)));
+		commandHandlers.add(new OptionsHandler(requestParser));
 		commandHandlers.add(new AccHandler(backend, liveActivity));
 		commandHandlers.add(new WithHandler(backend, liveActivity));
 		commandHandlers.add(new RecommendHandler(manager, liveActivity));
@@ -183,8 +186,8 @@ public class IRCBot implements GameChatEventConsumer {
 	}
 
 	public static boolean isTimeout(Throwable e) {
-		return (e instanceof SocketTimeoutException)
-				|| ((e instanceof IOException) && e.getMessage().startsWith("Premature EOF"));
+		return (e instanceof SocketTimeoutException) || (e instanceof HttpTimeoutException)
+				|| ((e instanceof IOException) && e.getMessage() != null && e.getMessage().startsWith("Premature EOF"));
 	}
 
 	public static String logException(Throwable e, Logger logger) {
@@ -225,6 +228,8 @@ public class IRCBot implements GameChatEventConsumer {
 				prelimResponse = prelimResponse.then(
 						new LinkPpaddictHandler(backend, ppaddictUserDataService).handle(message.getMessage(), apiUser, userData));
 				if (!prelimResponse.isNone()) {
+					// linking to Patreon may have changed the donator status
+					requestParser.invalidateDonator(apiUser.getUserId());
 					return prelimResponse;
 				}
 
@@ -1,30 +1,59 @@
 package tillerino.tillerinobot;
 
-import static java.util.stream.Collectors.toList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 
+import javax.annotation.CheckForNull;
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.slf4j.MDC;
 import org.tillerino.ppaddict.util.MdcUtils;
 
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Rate limiter for the osu! API with multiple urgency levels. It keeps one
- * (bounded) queue per priority, adding 1200 permits per second to the queues,
- * highest to lowest priority. It drains the queues in reverse order, which will
- * always keep a buffer for high priority threads. The sum of the capacities of
- * the permit queues is 200, which roughly translates to "1200 requests per
- * minute, with burst capability of up to 200 beyond that", which is the
- * documentation of the rate limit of the API.
+ * (bounded) bucket of permits per priority, adding 1200 permits per minute to
+ * the buckets, highest to lowest priority. It drains the buckets in reverse
+ * order, which will always keep a buffer for high priority threads. The sum of
+ * the capacities of the buckets is 200, which roughly translates to "1200
+ * requests per minute, with burst capability of up to 200 beyond that", which
+ * is the documentation of the rate limit of the API.
+ *
+ * <p>
+ * The permit counts of all buckets and the time up to which permits have been
+ * added are packed into a single long, which is only ever updated with a
+ * compare-and-set. Permits are added on demand from the elapsed time (see
+ * {@link #startRefilling()}), so there is no thread adding them. Threads which
+ * have to wait queue up per priority and are handed permits in order, like the
+ * fair queues which this used to be built on. {@link #limitRateAsync()} queues
+ * up the same way, but does not block at all.
+ *
+ * <p>
+ * The rate adapts to the health of the API: {@link #onOverload()} halves it
+ * and {@link #onSuccess()} increases it again by one permit per minute, up to
+ * the official rate (additive increase, multiplicative decrease).
  */
 @Singleton
 @Slf4j
@@ -42,30 +71,199 @@ public class RateLimiter {
 	 */
 	public static final int MAINTENANCE = 2;
 
+	private static final int[] CAPACITIES = { 50, 50, 100 };
+
+	static final int MAX_PERMITS_PER_MINUTE = 1200;
+
+	static final int MIN_PERMITS_PER_MINUTE = 60;
+
+	/**
+	 * After decreasing the rate, further overloads are ignored for this long,
+	 * since requests which were already underway will fail as well.
+	 */
+	static final long BACKOFF_NANOS = SECONDS.toNanos(5);
+
+	static final long PERMIT_INTERVAL_NANOS = MINUTES.toNanos(1) / MAX_PERMITS_PER_MINUTE;
+
+	/*
+	 * Layout of the state: 8 bits of permits per priority, starting with
+	 * REQUEST at the lowest bits, then the time up to which permits have been
+	 * added in units of 2^14ns (about 16µs) in the upper 40 bits. This wraps
+	 * around after about 200 days, which is fine as long as the time is
+	 * compared to the current time at least that often.
+	 */
+	private static final int COUNT_BITS = 8;
+
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	private static final int TIME_SHIFT = COUNT_BITS * CAPACITIES.length;
+
+	private static final long COUNTS_MASK = (1L << TIME_SHIFT) - 1;
+
+	private static final int TIME_UNIT_SHIFT = 14;
+
+	/**
+	 * Upper bounds of the buckets of the wait time histograms in
+	 * {@link PriorityMetrics#getWaitHistogram()}. There is one more bucket for
+	 * longer waits.
+	 */
+	public static final long[] WAIT_HISTOGRAM_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000,
+			5000, 10000 };
+
+	/**
+	 * Snapshot of the statistics of a priority.
+	 */
+	@Value
+	public static class PriorityMetrics {
+		/**
+		 * Permits which were available right away.
+		 */
+		long immediate;
+		/**
+		 * Permits which had to be waited for.
+		 */
+		long blocked;
+		long blockedMillis;
+		/**
+		 * Permits which are currently available to this priority.
+		 */
+		long availablePermits;
+		/**
+		 * Number of waits by duration, see
+		 * {@link RateLimiter#WAIT_HISTOGRAM_BOUNDS_MILLIS}.
+		 */
+		@Getter(AccessLevel.NONE)
+		long[] waitHistogram;
+
+		public PriorityMetrics(long immediate, long blocked, long blockedMillis, long availablePermits,
+				long[] waitHistogram) {
+			this.immediate = immediate;
+			this.blocked = blocked;
+			this.blockedMillis = blockedMillis;
+			this.availablePermits = availablePermits;
+			this.waitHistogram = waitHistogram.clone();
+		}
+
+		/**
+		 * @return a copy of the histogram
+		 */
+		public long[] getWaitHistogram() {
+			return waitHistogram.clone();
+		}
+	}
+
+	private static class PriorityStats {
+		final LongAdder immediate = new LongAdder();
+
+		final LongAdder blocked = new LongAdder();
+
+		final LongAdder blockedNanos = new LongAdder();
+
+		final LongAdder[] waitHistogram = new LongAdder[WAIT_HISTOGRAM_BOUNDS_MILLIS.length + 1];
+
+		PriorityStats() {
+			Arrays.setAll(waitHistogram, i -> new LongAdder());
+		}
+
+		void recordWait(long nanos) {
+			blocked.increment();
+			blockedNanos.add(nanos);
+			long millis = NANOSECONDS.toMillis(nanos);
+			int bucket = 0;
+			while (bucket < WAIT_HISTOGRAM_BOUNDS_MILLIS.length && millis > WAIT_HISTOGRAM_BOUNDS_MILLIS[bucket]) {
+				bucket++;
+			}
+			waitHistogram[bucket].increment();
+		}
+	}
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "RateLimiter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * A thread blocked in {@link RateLimiter#limitRate()} or a call to
+	 * {@link RateLimiter#limitRateAsync()} which is waiting for a permit.
+	 */
+	@RequiredArgsConstructor
+	private static class Waiter {
+		final int priority;
+
+		final long startTime;
+
+		/**
+		 * The blocked thread or null if this is an async waiter.
+		 */
+		@CheckForNull
+		final Thread thread;
+
+		final CompletableFuture<Void> permit = new CompletableFuture<>();
+	}
+
+	private static class ThreadState {
+		int priority = MAINTENANCE;
+
+		long blockedNanos = 0;
+	}
+
+	private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+
+	private final AtomicLong state = new AtomicLong();
+
 	/**
-	 * The actual value of a permit is irrelevant.
+	 * Waiters by priority, first come first served. Only modified while
+	 * holding the lock on the array. A thread only takes a permit right away
+	 * if nobody of its priority is waiting; otherwise, permits are handed to
+	 * the waiters in order by {@link #serve()}.
 	 */
-	private static final Object PERMIT = new Object();
+	@SuppressWarnings("unchecked")
+	private final Queue<Waiter>[] waiting = new Queue[] { new ConcurrentLinkedQueue<>(),
+			new ConcurrentLinkedQueue<>(), new ConcurrentLinkedQueue<>() };
+
+	private final AtomicBoolean retryScheduled = new AtomicBoolean();
 
-	private final ThreadLocal<Integer> threadPriority = ThreadLocal.withInitial(() -> MAINTENANCE);
+	private final LongSupplier clock;
 
-	private final ThreadLocal<Long> blockedTime = ThreadLocal.withInitial(() -> 0l);
+	private final long origin;
 
-	private final List<BlockingQueue<Object>> permits = new ArrayList<>();
+	private volatile boolean refilling = false;
 
+	private final AtomicInteger permitsPerMinute = new AtomicInteger(MAX_PERMITS_PER_MINUTE);
+
+	private final AtomicLong lastBackoff;
+
+	private final AtomicLong backoffs = new AtomicLong();
+
+	private final PriorityStats[] stats = { new PriorityStats(), new PriorityStats(), new PriorityStats() };
+
+	@Inject
 	public RateLimiter() {
-		permits.add(new ArrayBlockingQueue<>(50, true));
-		permits.add(new ArrayBlockingQueue<>(50, true));
-		permits.add(new ArrayBlockingQueue<>(100, true));
+		this(System::nanoTime);
+	}
+
+	RateLimiter(LongSupplier clock) {
+		this.clock = clock;
+		this.origin = clock.getAsLong();
+		this.lastBackoff = new AtomicLong(origin - BACKOFF_NANOS);
 	}
 
 	public void setThreadPriority(int priority) {
 		MDC.put(MdcUtils.MDC_THREAD_PRIORITY, String.valueOf(priority));
-		threadPriority.set(priority);
+		threadState.get().priority = priority;
+	}
+
+	/**
+	 * @return the priority of the calling thread, see
+	 *         {@link #setThreadPriority(int)}
+	 */
+	public int getThreadPriority() {
+		return threadState.get().priority;
 	}
 
 	public void clearThreadPriority() {
-		threadPriority.remove();
+		threadState.get().priority = MAINTENANCE;
 		MDC.remove(MdcUtils.MDC_THREAD_PRIORITY);
 	}
 
@@ -74,54 +272,320 @@ public class RateLimiter {
 	 * for a permit.
 	 */
 	public long blockedTime() {
-		Long time = blockedTime.get();
-		blockedTime.remove();
+		ThreadState thread = threadState.get();
+		long time = NANOSECONDS.toMillis(thread.blockedNanos);
+		thread.blockedNanos = 0;
 		return time;
 	}
 
 	public void limitRate() throws InterruptedException {
 		/*
-		 * attempt to get a permit from a queue with the lowest possible
+		 * attempt to get a permit from a bucket with the lowest possible
 		 * priority. Make sure to go down to the allowed priority to
 		 * correctly log blocking.
 		 */
-		int priority = threadPriority.get();
-		for (int i = MAINTENANCE; i >= priority; i--) {
-			Object permit = permits.get(i).poll();
-			if (permit != null) {
-				return;
-			}
+		ThreadState thread = threadState.get();
+		if (waiting[thread.priority].isEmpty() && tryAcquire(thread.priority)) {
+			stats[thread.priority].immediate.increment();
+			return;
 		}
-		long startTime = System.currentTimeMillis();
+		Waiter waiter = new Waiter(thread.priority, System.nanoTime(), Thread.currentThread());
 		try {
 			log.trace("Blocking");
-			permits.get(priority).take();
+			enqueue(waiter);
+			while (!waiter.permit.isDone()) {
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					synchronized (waiting) {
+						if (!waiter.permit.isDone()) {
+							waiting[waiter.priority].remove(waiter);
+							throw new InterruptedException();
+						}
+					}
+					// we were handed a permit in the meantime, so keep it
+					Thread.currentThread().interrupt();
+				}
+			}
 		} finally {
-			blockedTime.set(blockedTime.get() + (System.currentTimeMillis() - startTime));
+			long blocked = System.nanoTime() - waiter.startTime;
+			thread.blockedNanos += blocked;
 			log.trace("Unblocked");
 		}
 	}
 
 	/**
-	 * This schedules adding permits at the official rate of the osu api.
+	 * Non-blocking version of {@link #limitRate()}. The returned future is
+	 * completed once a permit has been taken for the priority of the calling
+	 * thread. Stages which depend on it may run on the thread which adds the
+	 * permit, so they must not block.
+	 */
+	public CompletableFuture<Void> limitRateAsync() {
+		int priority = threadState.get().priority;
+		if (waiting[priority].isEmpty() && tryAcquire(priority)) {
+			stats[priority].immediate.increment();
+			return CompletableFuture.completedFuture(null);
+		}
+		Waiter waiter = new Waiter(priority, System.nanoTime(), null);
+		enqueue(waiter);
+		return waiter.permit;
+	}
+
+	private void enqueue(Waiter waiter) {
+		synchronized (waiting) {
+			waiting[waiter.priority].add(waiter);
+		}
+		// a permit may have been added before we were in the queue
+		serve();
+	}
+
+	/**
+	 * Hands out permits to the waiters in order, highest priority first, and
+	 * makes sure that we check again when the next permit is due.
+	 */
+	private void serve() {
+		List<Waiter> served = new ArrayList<>();
+		boolean stillWaiting = false;
+		synchronized (waiting) {
+			for (int priority = REQUEST; priority <= MAINTENANCE; priority++) {
+				Queue<Waiter> queue = waiting[priority];
+				for (Waiter waiter; (waiter = queue.peek()) != null;) {
+					if (waiter.permit.isDone()) {
+						// cancelled
+						queue.remove();
+					} else if (tryAcquire(priority)) {
+						queue.remove();
+						if (waiter.thread != null) {
+							// while holding the lock, see limitRate()
+							waiter.permit.complete(null);
+						}
+						served.add(waiter);
+					} else {
+						stillWaiting = true;
+						break;
+					}
+				}
+			}
+		}
+		if (stillWaiting && refilling && retryScheduled.compareAndSet(false, true)) {
+			TIMER.schedule(() -> {
+				retryScheduled.set(false);
+				serve();
+			}, nanosUntilNextPermit(), NANOSECONDS);
+		}
+		for (Waiter waiter : served) {
+			stats[waiter.priority].recordWait(System.nanoTime() - waiter.startTime);
+			if (waiter.thread != null) {
+				LockSupport.unpark(waiter.thread);
+			} else {
+				// outside of the lock since this runs dependent stages
+				waiter.permit.complete(null);
+			}
+		}
+	}
+
+	/**
+	 * Starts adding permits at the official rate of the osu api. Until this is
+	 * called, permits are only added through {@link #addPermit()}.
+	 */
+	public void startRefilling() {
+		for (;;) {
+			long current = state.get();
+			if (state.compareAndSet(current, (current & COUNTS_MASK) | (now() << TIME_SHIFT))) {
+				break;
+			}
+		}
+		refilling = true;
+	}
+
+	/**
+	 * Permits are no longer added by a scheduled task.
+	 *
+	 * @param exec not used
+	 * @deprecated use {@link #startRefilling()}
 	 */
+	@Deprecated
 	public void startSchedulingPermits(ScheduledExecutorService exec) {
-		exec.scheduleAtFixedRate(this::addPermit, 0, 50, TimeUnit.MILLISECONDS);
+		startRefilling();
 	}
 
 	public void addPermit() {
-		/*
-		 * Add a permit to the queue which has capacity with the highest
-		 * priority. If all queues are full, add no
-		 */
-		for (BlockingQueue<Object> level : permits) {
-			if (level.offer(PERMIT)) {
-				return;
+		for (;;) {
+			long current = state.get();
+			long next = add(refill(current), 1);
+			if (next == current || state.compareAndSet(current, next)) {
+				break;
 			}
 		}
+		wakeWaiting();
+	}
+
+	/**
+	 * Call when the API has answered normally. Increases the rate by one
+	 * permit per minute unless we have backed off recently.
+	 */
+	public void onSuccess() {
+		if (permitsPerMinute.get() == MAX_PERMITS_PER_MINUTE
+				|| clock.getAsLong() - lastBackoff.get() < BACKOFF_NANOS) {
+			return;
+		}
+		permitsPerMinute.updateAndGet(rate -> Math.min(MAX_PERMITS_PER_MINUTE, rate + 1));
+	}
+
+	/**
+	 * Call when the API is rate limiting us or struggling (timeouts, gateway
+	 * errors). Halves the rate and the permits which are left unless we have
+	 * backed off recently.
+	 */
+	public void onOverload() {
+		long now = clock.getAsLong();
+		long last = lastBackoff.get();
+		if (now - last < BACKOFF_NANOS || !lastBackoff.compareAndSet(last, now)) {
+			return;
+		}
+		backoffs.incrementAndGet();
+		// permits which became due before are still added at the old rate
+		for (;;) {
+			long current = state.get();
+			long refilled = refill(current);
+			long halved = refilled & ~COUNTS_MASK;
+			for (int priority = REQUEST; priority <= MAINTENANCE; priority++) {
+				halved |= (long) (count(refilled, priority) / 2) << (priority * COUNT_BITS);
+			}
+			if (state.compareAndSet(current, halved)) {
+				break;
+			}
+		}
+		int rate = permitsPerMinute.updateAndGet(r -> Math.max(MIN_PERMITS_PER_MINUTE, r / 2));
+		log.warn("osu api overloaded, reducing rate to {} per minute", rate);
+	}
+
+	private static long intervalUnits(int permitsPerMinute) {
+		return ((MINUTES.toNanos(1) / permitsPerMinute) >> TIME_UNIT_SHIFT) + 1;
+	}
+
+	/**
+	 * @return the current permit rate
+	 */
+	public int getPermitsPerMinute() {
+		return permitsPerMinute.get();
+	}
+
+	/**
+	 * @return true if the rate has been reduced and is not fully recovered
+	 */
+	public boolean isBackingOff() {
+		return permitsPerMinute.get() < MAX_PERMITS_PER_MINUTE;
+	}
+
+	/**
+	 * @return how often the rate has been reduced
+	 */
+	public long getBackoffs() {
+		return backoffs.get();
+	}
+
+	public PriorityMetrics getMetrics(int priority) {
+		PriorityStats priorityStats = stats[priority];
+		long current = refill(state.get());
+		long available = 0;
+		for (int level = priority; level <= MAINTENANCE; level++) {
+			available += count(current, level);
+		}
+		return new PriorityMetrics(priorityStats.immediate.sum(), priorityStats.blocked.sum(),
+				NANOSECONDS.toMillis(priorityStats.blockedNanos.sum()), available,
+				Arrays.stream(priorityStats.waitHistogram).mapToLong(LongAdder::sum).toArray());
 	}
 
 	public List<Integer> getPermitCount() {
-		return permits.stream().map(Collection::size).collect(toList());
+		long current = refill(state.get());
+		List<Integer> counts = new ArrayList<>(CAPACITIES.length);
+		for (int priority = REQUEST; priority <= MAINTENANCE; priority++) {
+			counts.add(count(current, priority));
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the number of threads and async calls waiting with the given
+	 *         priority
+	 */
+	int waitingCount(int priority) {
+		return waiting[priority].size();
+	}
+
+	private boolean tryAcquire(int priority) {
+		for (;;) {
+			long current = state.get();
+			long refilled = refill(current);
+			int level = MAINTENANCE;
+			while (level >= priority && count(refilled, level) == 0) {
+				level--;
+			}
+			if (level < priority) {
+				// nothing to take; the refill is computed again next time
+				return false;
+			}
+			if (state.compareAndSet(current, refilled - (1L << (level * COUNT_BITS)))) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds the permits which have become due since the time in the given
+	 * state. The state must have been read before calling this so that the
+	 * current time is not before the time in the state.
+	 */
+	private long refill(long current) {
+		if (!refilling) {
+			return current;
+		}
+		long time = current >>> TIME_SHIFT;
+		// sign-extend the 40 bit difference in case of a reordered clock
+		long elapsed = ((now() - time) << TIME_SHIFT) >> TIME_SHIFT;
+		long interval = intervalUnits(permitsPerMinute.get());
+		long permits = elapsed / interval;
+		if (permits <= 0) {
+			return current;
+		}
+		long nextTime = time + permits * interval;
+		return add(current & COUNTS_MASK, permits) | (nextTime << TIME_SHIFT);
+	}
+
+	/**
+	 * Adds permits to the buckets which have capacity, highest priority first.
+	 * If all buckets are full, the rest is discarded.
+	 */
+	private static long add(long current, long permits) {
+		for (int priority = REQUEST; priority <= MAINTENANCE && permits > 0; priority++) {
+			long added = Math.min(permits, CAPACITIES[priority] - count(current, priority));
+			current += added << (priority * COUNT_BITS);
+			permits -= added;
+		}
+		return current;
+	}
+
+	private static int count(long state, int priority) {
+		return (int) ((state >>> (priority * COUNT_BITS)) & COUNT_MASK);
+	}
+
+	private long nanosUntilNextPermit() {
+		long time = state.get() >>> TIME_SHIFT;
+		long elapsed = ((now() - time) << TIME_SHIFT) >> TIME_SHIFT;
+		long interval = intervalUnits(permitsPerMinute.get());
+		return Math.max(1, (interval - elapsed % interval) << TIME_UNIT_SHIFT);
+	}
+
+	private long now() {
+		return (clock.getAsLong() - origin) >>> TIME_UNIT_SHIFT;
+	}
+
+	private void wakeWaiting() {
+		for (Queue<Waiter> queue : waiting) {
+			if (!queue.isEmpty()) {
+				serve();
+				return;
+			}
+		}
 	}
 }
@@ -1,34 +1,455 @@
 package tillerino.tillerinobot;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
+import javax.annotation.CheckForNull;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Singleton;
 import javax.ws.rs.ServiceUnavailableException;
 
 import org.tillerino.osuApiModel.Downloader;
+import org.tillerino.osuApiModel.OsuApiBeatmap;
+import org.tillerino.osuApiModel.OsuApiScore;
+import org.tillerino.osuApiModel.OsuApiUser;
+import org.tillerino.osuApiModel.types.BeatmapId;
+import org.tillerino.osuApiModel.types.BitwiseMods;
+import org.tillerino.osuApiModel.types.GameMode;
+import org.tillerino.osuApiModel.types.UserId;
 
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
 
+/**
+ * {@link Downloader} which takes a permit from the {@link RateLimiter} for
+ * every call to the API. Identical calls (same command and parameters) which
+ * are made at the same time share a single call to the API, and the responses
+ * to some commands are kept for a short time (see {@link #TTL_MILLIS}), so
+ * that duplicate calls don't use up permits. A call which is still waiting for
+ * its permit is not shared with callers of a higher priority (see
+ * {@link InFlight#canJoin(int)}), so that they are not held up behind it.
+ *
+ * <p>
+ * {@link #getAsync(String, String...)} and the typed methods built on it don't
+ * block any thread: they acquire the permit asynchronously and use a
+ * non-blocking {@link HttpClient}, so a few threads can keep many calls in
+ * flight. They share the cached responses with the blocking methods.
+ */
+@Singleton
 public class RateLimitingOsuApiDownloader extends Downloader {
+	/**
+	 * {@link Downloader} reports unexpected status codes like this.
+	 */
+	private static final Pattern RESPONSE_CODE = Pattern.compile("response code (\\d+)");
+
+	/**
+	 * Same as the timeouts of {@link Downloader#downloadDirect(URL)}.
+	 */
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	private static final String INVALID_KEY = "Please provide a valid API key.";
+
+	/**
+	 * How long the responses to each command are kept. Responses to other
+	 * commands are only shared between concurrent calls.
+	 */
+	static final Map<String, Long> TTL_MILLIS = Map.of(
+			GET_BEATMAPS, SECONDS.toMillis(60),
+			GET_USER_BEST, SECONDS.toMillis(30),
+			GET_SCORES, SECONDS.toMillis(30),
+			GET_USER, SECONDS.toMillis(10),
+			// recent plays are usually requested right after playing
+			GET_USER_RECENT, SECONDS.toMillis(2));
+
+	@Value
+	private static class Response {
+		JsonElement json;
+
+		long expires;
+	}
+
 	private final RateLimiter limiter;
 
+	private final Ticker ticker;
+
+	private final Cache<List<String>, Response> responses;
+
+	/**
+	 * A call to the API which identical calls can join.
+	 */
+	@RequiredArgsConstructor
+	private static class InFlight {
+		/**
+		 * The priority of the thread which started the call.
+		 */
+		final int priority;
+
+		final CompletableFuture<JsonElement> response = new CompletableFuture<>();
+
+		/**
+		 * Set once the call has its permit.
+		 */
+		volatile boolean permitted = false;
+
+		/**
+		 * A call which is still waiting for its permit can only be joined
+		 * with the same or a lower priority. Otherwise, a request would have
+		 * to wait for a permit for background work.
+		 */
+		boolean canJoin(int priority) {
+			return permitted || this.priority <= priority;
+		}
+	}
+
+	/**
+	 * Calls in flight, shared by the blocking and the non-blocking methods.
+	 */
+	private final ConcurrentMap<List<String>, InFlight> inFlight = new ConcurrentHashMap<>();
+
+	private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+	private final LongAdder cacheHits = new LongAdder();
+
+	private final LongAdder apiCalls = new LongAdder();
+
 	@Inject
 	public RateLimitingOsuApiDownloader(@Named("osuapi.url") URL baseUrl,
 			@Named("osuapi.key") String key, RateLimiter limiter) {
+		this(baseUrl, key, limiter, Ticker.systemTicker());
+	}
+
+	RateLimitingOsuApiDownloader(URL baseUrl, String key, RateLimiter limiter, Ticker ticker) {
 		super(baseUrl, key);
 		this.limiter = limiter;
+		this.ticker = ticker;
+		this.responses = CacheBuilder.newBuilder()
+				.ticker(ticker)
+				.expireAfterWrite(TTL_MILLIS.values().stream().mapToLong(Long::longValue).max().getAsLong(), MILLISECONDS)
+				.maximumSize(10000)
+				.build();
 	}
 
+	/**
+	 * @return a copy of the response, so callers may modify it
+	 */
 	@Override
 	public JsonElement get(String command, String... parameters) throws IOException {
+		List<String> key = ImmutableList.<String>builder().add(command).add(parameters).build();
+		JsonElement cached = getCached(key);
+		if (cached != null) {
+			return cached;
+		}
+		InFlight call = new InFlight(limiter.getThreadPriority());
+		InFlight running = join(key, call);
+		if (running != null) {
+			return await(running);
+		}
 		try {
-			limiter.limitRate();
+			try {
+				limiter.limitRate();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceUnavailableException();
+			}
+			call.permitted = true;
+			JsonElement json = call(command, parameters);
+			complete(key, command, call, json, null);
+			return json.deepCopy();
+		} catch (IOException | RuntimeException | Error e) {
+			complete(key, command, call, null, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Non-blocking version of {@link #get(String, String...)}. Concurrent
+	 * identical calls share a single call to the API.
+	 *
+	 * @return completes with a copy of the response
+	 */
+	public CompletableFuture<JsonElement> getAsync(String command, String... parameters) {
+		List<String> key = ImmutableList.<String>builder().add(command).add(parameters).build();
+		JsonElement cached = getCached(key);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		InFlight call = new InFlight(limiter.getThreadPriority());
+		InFlight running = join(key, call);
+		if (running == null) {
+			running = call;
+			limiter.limitRateAsync()
+					.thenCompose(permit -> {
+						call.permitted = true;
+						return callAsync(command, parameters);
+					})
+					.whenComplete((json, e) -> complete(key, command, call, json,
+							e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+		}
+		return running.response.thenApply(JsonElement::deepCopy);
+	}
+
+	/**
+	 * Registers the given new call unless there is a call in flight which it
+	 * can join.
+	 *
+	 * @return the call to join or null if the given call was registered and
+	 *         must be made
+	 */
+	@CheckForNull
+	private InFlight join(List<String> key, InFlight call) {
+		for (;;) {
+			InFlight running = inFlight.putIfAbsent(key, call);
+			if (running == null) {
+				return null;
+			}
+			if (running.canJoin(call.priority)) {
+				return running;
+			}
+			// the running call finishes on its own, but later calls join ours
+			if (inFlight.replace(key, running, call)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a call which another thread is making.
+	 *
+	 * @return a copy of the response
+	 */
+	private static JsonElement await(InFlight running) throws IOException {
+		try {
+			return running.response.get().deepCopy();
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			throw new ServiceUnavailableException();
+		} catch (ExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Caches the response if the command allows it and hands it to the calls
+	 * which joined the given call.
+	 */
+	private void complete(List<String> key, String command, InFlight call, @CheckForNull JsonElement json,
+			@CheckForNull Throwable e) {
+		long ttl = MILLISECONDS.toNanos(TTL_MILLIS.getOrDefault(command, 0L));
+		if (e == null && ttl > 0) {
+			responses.put(key, new Response(json, ticker.read() + ttl));
+		}
+		inFlight.remove(key, call);
+		if (e == null) {
+			call.response.complete(json);
+		} else {
+			call.response.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Non-blocking version of {@link #getUser(int, int, Class)}.
+	 *
+	 * @return completes with null if the user was not found
+	 */
+	public <T extends OsuApiUser> CompletableFuture<T> getUserAsync(@UserId int userId, @GameMode int mode, Class<T> cls) {
+		return getAsync(GET_USER, "u", String.valueOf(userId), "m", String.valueOf(mode), "type", "id").thenApply(json -> {
+			JsonArray array = json.getAsJsonArray();
+			if (array.size() == 0) {
+				return null;
+			}
+			T user = OsuApiUser.fromJsonObject(array.get(0).getAsJsonObject(), cls, mode);
+			user.setMode(mode);
+			return user;
+		});
+	}
+
+	/**
+	 * Non-blocking version of {@link #getUserRecent(int, int, Class)}.
+	 */
+	public <T extends OsuApiScore> CompletableFuture<List<T>> getUserRecentAsync(@UserId int userId, @GameMode int mode, Class<T> cls) {
+		return getAsync(GET_USER_RECENT, "u", String.valueOf(userId), "m", String.valueOf(mode), "type", "id")
+				.thenApply(json -> {
+					JsonArray array = json.getAsJsonArray();
+					if (array.size() == 0) {
+						return Collections.<T>emptyList();
+					}
+					return OsuApiScore.fromJsonArray(array, cls, mode);
+				});
+	}
+
+	/**
+	 * Non-blocking version of {@link #getBeatmap(int, long, Class)}.
+	 *
+	 * @return completes with null if the beatmap was not found
+	 */
+	public <T extends OsuApiBeatmap> CompletableFuture<T> getBeatmapAsync(@BeatmapId int beatmapId, @BitwiseMods long mods, Class<T> cls) {
+		return getAsync(GET_BEATMAPS, "b", String.valueOf(beatmapId), "mods", String.valueOf(mods)).thenApply(json -> {
+			JsonArray array = json.getAsJsonArray();
+			if (array.size() == 0) {
+				return null;
+			}
+			return OsuApiBeatmap.fromJsonObject(array.get(0).getAsJsonObject(), cls);
+		});
+	}
+
+	/**
+	 * @return a copy of the cached response or null if there is no fresh one
+	 */
+	@CheckForNull
+	private JsonElement getCached(List<String> key) {
+		Response cached = responses.getIfPresent(key);
+		if (cached == null) {
+			return null;
+		}
+		if (cached.getExpires() - ticker.read() > 0) {
+			cacheHits.increment();
+			return cached.getJson().deepCopy();
+		}
+		responses.asMap().remove(key, cached);
+		return null;
+	}
+
+	/**
+	 * Calls the API. The permit must have been taken.
+	 */
+	JsonElement call(String command, String... parameters) throws IOException {
+		apiCalls.increment();
+		JsonElement response;
+		try {
+			response = super.get(command, parameters);
+		} catch (IOException | RuntimeException e) {
+			if (isOverload(e)) {
+				limiter.onOverload();
+			}
+			throw e;
+		}
+		limiter.onSuccess();
+		return response;
+	}
+
+	/**
+	 * Non-blocking version of {@link #call(String, String...)}. Checks the
+	 * response like {@link Downloader#get(String, String...)}. The permit must
+	 * have been taken.
+	 */
+	CompletableFuture<JsonElement> callAsync(String command, String... parameters) {
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(formURL(true, command, parameters).toURI())
+					.timeout(TIMEOUT)
+					.header("Accept-Encoding", "gzip")
+					.build();
+		} catch (IOException | URISyntaxException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		apiCalls.increment();
+		return httpClient.sendAsync(request, BodyHandlers.ofByteArray())
+				.thenApply(response -> parse(command, response))
+				.whenComplete((json, e) -> {
+					if (e == null) {
+						limiter.onSuccess();
+					} else if (isOverload(e)) {
+						limiter.onOverload();
+					}
+				});
+	}
+
+	private static JsonElement parse(String command, HttpResponse<byte[]> response) {
+		try {
+			if (response.statusCode() != 200) {
+				throw new IOException("response code " + response.statusCode() + " for " + command);
+			}
+			String contentType = response.headers().firstValue("Content-Type").orElse("").toLowerCase();
+			if (!contentType.contains("application/json;") || !contentType.contains("charset=utf-8")) {
+				throw new IOException("unexpected content-type: " + contentType + " for " + command);
+			}
+			byte[] body = response.body();
+			if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+				try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+					body = in.readAllBytes();
+				}
+			}
+			String text = new String(body, StandardCharsets.UTF_8);
+			if (text.equals(INVALID_KEY)) {
+				throw new RuntimeException(INVALID_KEY);
+			}
+			try {
+				return JsonParser.parseString(text);
+			} catch (JsonSyntaxException e) {
+				throw new RuntimeException("Unable to parse response: " + text, e);
+			}
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * @return the number of calls which were answered from the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return the number of calls which were made to the API
+	 */
+	public long getApiCalls() {
+		return apiCalls.sum();
+	}
+
+	/**
+	 * @return true if the exception means that we are being rate limited or
+	 *         that the API is struggling: 429, timeouts, gateway errors
+	 */
+	static boolean isOverload(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (IRCBot.isTimeout(t) || IRCBot.isExternalException(t)) {
+				return true;
+			}
+			if (t instanceof IOException && t.getMessage() != null) {
+				Matcher matcher = RESPONSE_CODE.matcher(t.getMessage());
+				if (matcher.find()) {
+					int code = Integer.parseInt(matcher.group(1));
+					return code == 429 || code == 502 || code == 503 || code == 504 || (code >= 520 && code <= 527);
+				}
+			}
 		}
-		return super.get(command, parameters);
+		return false;
 	}
 }
@@ -1,5 +1,10 @@
 package tillerino.tillerinobot.data;
 
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
 import javax.annotation.Nonnull;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -18,13 +23,88 @@ import lombok.NoArgsConstructor;
 @Entity(name = "actualbeatmaps")
 @SuppressFBWarnings(value = "EI")
 public class ActualBeatmap {
+	/**
+	 * First byte of deflate-compressed {@link #content}. .osu files are text
+	 * and never start with a zero byte, so uncompressed content written before
+	 * compression was introduced can be told apart.
+	 */
+	public static final byte DEFLATED = 0;
+
 	@Id
 	@Nonnull
 	@Column(nullable = false)
 	private Integer beatmapid = 0;
 
+	/**
+	 * The file as stored: either {@link #DEFLATED} followed by the compressed
+	 * file or the uncompressed file. Use {@link #getFileContent()} and
+	 * {@link #setFileContent(byte[])} to access the file itself.
+	 */
 	@Column(length = 128 * 1024 * 1024) // arbitrary cap
 	private byte[] content;
 	private long downloaded;
+	/**
+	 * md5 of the uncompressed file
+	 */
 	private String hash;
-}
\ No newline at end of file
+
+	/**
+	 * @return true if {@link #content} is compressed
+	 */
+	public boolean isCompressed() {
+		return content != null && content.length > 0 && content[0] == DEFLATED;
+	}
+
+	/**
+	 * @return the uncompressed file; decompressed on every call
+	 */
+	public byte[] getFileContent() {
+		return isCompressed() ? inflate(content) : content;
+	}
+
+	/**
+	 * Compresses the given file into {@link #content}.
+	 */
+	public void setFileContent(byte[] file) {
+		content = deflate(file);
+	}
+
+	static byte[] deflate(byte[] file) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(file);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(file.length / 4 + 16);
+			out.write(DEFLATED);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	static byte[] inflate(byte[] content) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(content, 1, content.length - 1);
+			// .osu files usually compress to about a fifth
+			ByteArrayOutputStream out = new ByteArrayOutputStream(content.length * 5);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(buffer);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalStateException("Truncated beatmap file");
+				}
+				out.write(buffer, 0, inflated);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Damaged beatmap file", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package tillerino.tillerinobot.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+import org.tillerino.osuApiModel.types.BitwiseMods;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import tillerino.tillerinobot.diff.DifficultyProperties;
+
+/**
+ * The result of a difficulty calculation for a beatmap file and mods. Since
+ * the result only depends on the file and the mods, this is keyed by the md5
+ * hash of the file (see {@link ActualBeatmap#getHash()}) instead of the
+ * beatmap id.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "beatmapdifficulties")
+@Entity(name = "beatmapdifficulties")
+@IdClass(BeatmapDifficulty.Key.class)
+public class BeatmapDifficulty implements DifficultyProperties {
+	@Data
+	@AllArgsConstructor
+	@NoArgsConstructor
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private String hash;
+
+		@BitwiseMods
+		private long mods;
+	}
+
+	@Id
+	@Column(length = 32)
+	private String hash;
+
+	/**
+	 * Only the mods which affect the difficulty.
+	 */
+	@Id
+	@BitwiseMods
+	private long mods;
+
+	private int allObjectsCount;
+
+	private int circleCount;
+
+	private double speed;
+
+	private double aim;
+
+	private int maxCombo;
+}
@@ -0,0 +1,83 @@
+package tillerino.tillerinobot.data;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Beatmap files on the local disk, addressed by their md5 hash (see
+ * {@link org.tillerino.osuApiModel.OsuApiBeatmap#getFileMd5()}). Since a file
+ * is only found under its own hash, finding it is the hash check. Files are
+ * stored uncompressed and read through memory mapping.
+ *
+ * <p>
+ * Files are written to a temporary file first and then moved into place, so
+ * readers never see incomplete files. This is safe to use from multiple
+ * threads and processes.
+ */
+public class BeatmapFileStore {
+	private static final Pattern MD5 = Pattern.compile("[0-9a-f]{32}");
+
+	private final Path directory;
+
+	public BeatmapFileStore(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * @return a read-only buffer mapping the file with the given hash, or empty
+	 *         if there is no such file
+	 */
+	public Optional<ByteBuffer> get(String md5) throws IOException {
+		try (FileChannel channel = FileChannel.open(path(md5), StandardOpenOption.READ)) {
+			return Optional.of(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		} catch (NoSuchFileException e) {
+			return Optional.empty();
+		}
+	}
+
+	public boolean contains(String md5) {
+		return Files.exists(path(md5));
+	}
+
+	/**
+	 * @param md5  the hash of the file
+	 * @param file the uncompressed file
+	 * @throws IllegalArgumentException if the hash does not match the file
+	 */
+	public void put(String md5, byte[] file) throws IOException {
+		Path path = path(md5);
+		if (!md5.equals(md5Hex(file))) {
+			throw new IllegalArgumentException("Hash does not match file: " + md5);
+		}
+		if (Files.exists(path)) {
+			return;
+		}
+		Path parent = Files.createDirectories(path.getParent());
+		Path temp = Files.createTempFile(parent, md5, ".tmp");
+		try {
+			Files.write(temp, file);
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Path path(String md5) {
+		if (!MD5.matcher(md5).matches()) {
+			throw new IllegalArgumentException("Not an md5 hash: " + md5);
+		}
+		// two levels keep the directories small
+		return directory.resolve(md5.substring(0, 2)).resolve(md5);
+	}
+}
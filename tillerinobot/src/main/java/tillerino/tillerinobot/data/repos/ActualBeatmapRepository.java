@@ -1,9 +1,37 @@
 package tillerino.tillerinobot.data.repos;
 
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import tillerino.tillerinobot.data.ActualBeatmap;
 
 public interface ActualBeatmapRepository extends JpaRepository<ActualBeatmap, Integer> {
+	/**
+	 * Projection of an {@link ActualBeatmap} without the file itself.
+	 */
+	interface FileHash {
+		String getHash();
+
+		long getDownloaded();
+	}
+
+	Optional<FileHash> findHashByBeatmapid(int beatmapid);
+
+	List<ActualBeatmap> findByBeatmapidGreaterThanOrderByBeatmapidAsc(int beatmapid, Pageable pageable);
 
+	/**
+	 * Replaces the file and hash unless the row has been downloaded again
+	 * since it was read.
+	 *
+	 * @param downloaded {@link ActualBeatmap#getDownloaded()} as read
+	 * @return the number of updated rows
+	 */
+	@Modifying
+	@Query("update actualbeatmaps a set a.content = ?2, a.hash = ?3 where a.beatmapid = ?1 and a.downloaded = ?4")
+	int updateFile(int beatmapid, byte[] content, String hash, long downloaded);
 }
@@ -0,0 +1,9 @@
+package tillerino.tillerinobot.data.repos;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import tillerino.tillerinobot.data.BeatmapDifficulty;
+
+public interface BeatmapDifficultyRepository extends JpaRepository<BeatmapDifficulty, BeatmapDifficulty.Key> {
+
+}
@@ -0,0 +1,208 @@
+package tillerino.tillerinobot.data.util;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.data.domain.PageRequest;
+import org.tillerino.osuApiModel.types.BeatmapId;
+import org.tillerino.ppaddict.util.ShutdownHook;
+import org.tillerino.ppaddict.util.TidyObject;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import tillerino.tillerinobot.data.ActualBeatmap;
+import tillerino.tillerinobot.data.repos.ActualBeatmapRepository;
+
+/**
+ * Fills in {@link ActualBeatmap#getHash()} and compresses the files of the
+ * {@link ActualBeatmap}s which were stored before hashes and compression were
+ * introduced.
+ *
+ * <p>
+ * {@link #run()} walks the table in the order of the beatmap ids, one batch
+ * per transaction on its own entity manager, and pauses between batches to
+ * keep the load on the database low. Run it once in a background thread; it
+ * stops when it reaches the end of the table or when it is interrupted. Rows
+ * which a request runs into before that are handed to {@link #fixLater(int)},
+ * so that they are only fixed once.
+ *
+ * <p>
+ * Rows are written with {@link ActualBeatmapRepository#updateFile}, which
+ * leaves them alone if they were downloaded again after they were read.
+ */
+@Slf4j
+@Singleton
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class ActualBeatmapBackfill implements Runnable, TidyObject {
+	static final int BATCH_SIZE = 100;
+
+	static final long PAUSE_MILLIS = 1000;
+
+	private final ActualBeatmapRepository repository;
+
+	private final ThreadLocalAutoCommittingEntityManager em;
+
+	private final EntityManagerFactory emf;
+
+	/**
+	 * The highest beatmap id which has been looked at by {@link #run()}.
+	 */
+	private int lastBeatmapid = Integer.MIN_VALUE;
+
+	/**
+	 * Fixes the rows from {@link #fixLater(int)}. A single low-priority thread
+	 * with a bounded queue: if it can't keep up, rows are dropped and handed
+	 * over again by the next request. Shut down in {@link #tidyUp(boolean)}.
+	 */
+	final ThreadPoolExecutor exec = createExecutor();
+
+	/**
+	 * Beatmaps which are currently queued.
+	 */
+	private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private final ShutdownHook shutdownHook = new ShutdownHook(this);
+
+	private static ThreadPoolExecutor createExecutor() {
+		ThreadPoolExecutor tpe = new ThreadPoolExecutor(1, 1,
+				5L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(100),
+				r -> {
+					Thread thread = new Thread(r, "ActualBeatmapBackfill");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				});
+		tpe.allowCoreThreadTimeOut(true);
+		return tpe;
+	}
+
+	@Override
+	public void run() {
+		long fixed = 0;
+		try {
+			for (int batch; (batch = fixBatch()) >= 0;) {
+				fixed += batch;
+				TimeUnit.MILLISECONDS.sleep(PAUSE_MILLIS);
+			}
+			log.info("Fixed {} beatmap files.", fixed);
+		} catch (InterruptedException e) {
+			log.info("Interrupted after fixing {} beatmap files.", fixed);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fixes the next batch.
+	 *
+	 * @return the number of files which were fixed or -1 if the end of the
+	 *         table has been reached
+	 */
+	int fixBatch() {
+		EntityManager oldEm = em.setThreadLocalEntityManager(emf.createEntityManager());
+		try {
+			return em.ensureTransaction(() -> {
+				List<ActualBeatmap> beatmaps = repository.findByBeatmapidGreaterThanOrderByBeatmapidAsc(lastBeatmapid,
+						PageRequest.of(0, BATCH_SIZE));
+				if (beatmaps.isEmpty()) {
+					return -1;
+				}
+				int fixed = 0;
+				for (ActualBeatmap beatmap : beatmaps) {
+					if (fix(beatmap)) {
+						fixed++;
+					}
+				}
+				lastBeatmapid = beatmaps.get(beatmaps.size() - 1).getBeatmapid();
+				return fixed;
+			});
+		} finally {
+			em.closeAndReplace(oldEm);
+		}
+	}
+
+	/**
+	 * Queues the given beatmap to be fixed in the background. Does nothing if
+	 * it is already queued.
+	 */
+	public void fixLater(@BeatmapId int beatmapid) {
+		if (!queued.add(beatmapid)) {
+			return;
+		}
+		if (started.compareAndSet(false, true)) {
+			shutdownHook.add();
+		}
+		try {
+			exec.execute(() -> {
+				try {
+					fix(beatmapid);
+				} catch (RuntimeException e) {
+					log.warn("Error fixing beatmap file {}", beatmapid, e);
+				} finally {
+					queued.remove(beatmapid);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queued.remove(beatmapid);
+			log.debug("Beatmap file backfill queue is full");
+		}
+	}
+
+	/**
+	 * Fixes the given beatmap in its own transaction on its own entity
+	 * manager.
+	 *
+	 * @return true if the row was changed
+	 */
+	boolean fix(@BeatmapId int beatmapid) {
+		EntityManager oldEm = em.setThreadLocalEntityManager(emf.createEntityManager());
+		try {
+			return em.ensureTransaction(() -> repository.findById(beatmapid).map(this::fix).orElse(false));
+		} finally {
+			em.closeAndReplace(oldEm);
+		}
+	}
+
+	/**
+	 * Writes the hash and the compressed file without touching the given
+	 * (managed) entity.
+	 *
+	 * @return true if the row was changed
+	 */
+	private boolean fix(ActualBeatmap beatmap) {
+		boolean missingHash = beatmap.getHash() == null || beatmap.getHash().isEmpty();
+		if (beatmap.getContent() == null || (!missingHash && beatmap.isCompressed())) {
+			return false;
+		}
+		byte[] file = beatmap.getFileContent();
+		byte[] content = beatmap.getContent();
+		if (!beatmap.isCompressed()) {
+			ActualBeatmap compressed = new ActualBeatmap();
+			compressed.setFileContent(file);
+			content = compressed.getContent();
+		}
+		return repository.updateFile(beatmap.getBeatmapid(), content,
+				missingHash ? md5Hex(file) : beatmap.getHash(), beatmap.getDownloaded()) > 0;
+	}
+
+	@Override
+	public void tidyUp(boolean fromShutdownHook) {
+		exec.shutdownNow();
+		shutdownHook.remove(fromShutdownHook);
+	}
+}
@@ -9,6 +9,7 @@ import org.tillerino.ppaddict.web.data.repos.PpaddictLinkKeyRepository;
 import org.tillerino.ppaddict.web.data.repos.PpaddictUserRepository;
 
 import tillerino.tillerinobot.data.repos.ActualBeatmapRepository;
+import tillerino.tillerinobot.data.repos.BeatmapDifficultyRepository;
 import tillerino.tillerinobot.data.repos.BotConfigRepository;
 import tillerino.tillerinobot.data.repos.BotUserDataRepository;
 import tillerino.tillerinobot.data.repos.GivenRecommendationRepository;
@@ -32,6 +33,7 @@ public class RepositoryModule extends AbstractModule {
 	private PpaddictUserRepository ppaddictUserRepository;
 	private PpaddictLinkKeyRepository ppaddictLinkKeyRepository;
 	private BotConfigRepository botConfigRepository;
+	private BeatmapDifficultyRepository beatmapDifficultyRepository;
 
 	@Provides
 	@Singleton
@@ -55,6 +57,7 @@ public class RepositoryModule extends AbstractModule {
 		ppaddictUserRepository = factory.getRepository(PpaddictUserRepository.class);
 		ppaddictLinkKeyRepository = factory.getRepository(PpaddictLinkKeyRepository.class);
 		botConfigRepository = factory.getRepository(BotConfigRepository.class);
+		beatmapDifficultyRepository = factory.getRepository(BeatmapDifficultyRepository.class);
 	}
 
 	@Provides
@@ -98,4 +101,10 @@ public class RepositoryModule extends AbstractModule {
 	public BotConfigRepository botConfigRepository(JpaRepositoryFactory factory) {
 		return botConfigRepository;
 	}
+
+	@Provides
+	@Singleton
+	public BeatmapDifficultyRepository beatmapDifficultyRepository(JpaRepositoryFactory factory) {
+		return beatmapDifficultyRepository;
+	}
 }
@@ -1,5 +1,6 @@
 package tillerino.tillerinobot.diff;
 
+import lombok.Data;
 import lombok.Value;
 
 import static java.lang.Math.abs;
@@ -7,8 +8,6 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.Math.round;
 
-import org.apache.commons.lang3.tuple.Pair;
-
 @Value
 public class AccuracyDistribution {
 	int x300;
@@ -16,14 +15,29 @@ public class AccuracyDistribution {
 	int x50;
 	int miss;
 
+	/**
+	 * Mutable counterpart of {@link AccuracyDistribution}, which can be reused
+	 * to compute distributions without allocating.
+	 */
+	@Data
+	public static class Mutable {
+		int x300;
+		int x100;
+		int x50;
+		int miss;
+	}
+
 	public static AccuracyDistribution get(int allObjects, int misses, double acc) {
-		Pair<Integer, Integer> best = getBest300s(allObjects, misses, acc);
-		int best300s = best.getLeft();
-		int best100s = best.getRight();
-		return new AccuracyDistribution(best300s, best100s, allObjects - best300s - best100s - misses, misses);
+		Mutable result = new Mutable();
+		get(allObjects, misses, acc, result);
+		return new AccuracyDistribution(result.x300, result.x100, result.x50, result.miss);
 	}
 
-	private static Pair<Integer, Integer> getBest300s(int allObjects, int misses, double acc) {
+	/**
+	 * Same as {@link #get(int, int, double)}, but writes the distribution into
+	 * the given holder instead of allocating.
+	 */
+	public static void get(int allObjects, int misses, double acc, Mutable result) {
 		acc = acc * allObjects * 6;
 		int intAcc = (int) round(acc);
 		int aomm = allObjects - misses;
@@ -54,6 +68,9 @@ public class AccuracyDistribution {
 				best100s = _100s;
 			}
 		}
-		return Pair.of(best300s, best100s);
+		result.x300 = best300s;
+		result.x100 = best100s;
+		result.x50 = allObjects - best300s - best100s - misses;
+		result.miss = misses;
 	}
 }
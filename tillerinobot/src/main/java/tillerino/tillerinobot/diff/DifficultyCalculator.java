@@ -1,8 +1,12 @@
 package tillerino.tillerinobot.diff;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.tillerino.osuApiModel.Mods;
 
@@ -12,4 +16,44 @@ public interface DifficultyCalculator {
 	DifficultyProperties calculate(InputStream byis, Collection<Mods> mods)
 			throws UserException, IOException;
 
-}
\ No newline at end of file
+	/**
+	 * Same as {@link #calculate(InputStream, Collection)}, but reads the
+	 * beatmap file from a buffer, e.g. the stored file or a memory-mapped
+	 * file. The buffer is not modified.
+	 */
+	default DifficultyProperties calculate(ByteBuffer content, Collection<Mods> mods)
+			throws UserException, IOException {
+		return calculate(new ByteArrayInputStream(toArray(content)), mods);
+	}
+
+	/**
+	 * Calculates the difficulty of the same beatmap for several mod
+	 * combinations.
+	 *
+	 * @return the difficulties in the order of the given mods
+	 */
+	default List<DifficultyProperties> calculateAll(InputStream is, List<Collection<Mods>> mods)
+			throws UserException, IOException {
+		byte[] content = is.readAllBytes();
+		List<DifficultyProperties> difficulties = new ArrayList<>(mods.size());
+		for (Collection<Mods> m : mods) {
+			difficulties.add(calculate(new ByteArrayInputStream(content), m));
+		}
+		return difficulties;
+	}
+
+	/**
+	 * Same as {@link #calculateAll(InputStream, List)}, but reads the beatmap
+	 * file from a buffer. The buffer is not modified.
+	 */
+	default List<DifficultyProperties> calculateAll(ByteBuffer content, List<Collection<Mods>> mods)
+			throws UserException, IOException {
+		return calculateAll(new ByteArrayInputStream(toArray(content)), mods);
+	}
+
+	private static byte[] toArray(ByteBuffer content) {
+		byte[] bytes = new byte[content.remaining()];
+		content.duplicate().get(bytes);
+		return bytes;
+	}
+}
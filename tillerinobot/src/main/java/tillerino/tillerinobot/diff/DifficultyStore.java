@@ -0,0 +1,148 @@
+package tillerino.tillerinobot.diff;
+
+import static org.tillerino.osuApiModel.Mods.DoubleTime;
+import static org.tillerino.osuApiModel.Mods.Easy;
+import static org.tillerino.osuApiModel.Mods.HalfTime;
+import static org.tillerino.osuApiModel.Mods.HardRock;
+import static org.tillerino.osuApiModel.Mods.fixNC;
+import static org.tillerino.osuApiModel.Mods.getMask;
+import static org.tillerino.osuApiModel.Mods.getMods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.tillerino.osuApiModel.types.BitwiseMods;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import lombok.Value;
+
+import tillerino.tillerinobot.UserException;
+import tillerino.tillerinobot.data.ActualBeatmap;
+import tillerino.tillerinobot.data.BeatmapDifficulty;
+import tillerino.tillerinobot.data.repos.BeatmapDifficultyRepository;
+
+/**
+ * Stores the results of {@link DifficultyCalculator} by the hash of the
+ * beatmap file and the mods which affect the difficulty. Results are kept in
+ * an in-heap LRU cache in front of the database, so that each combination is
+ * only calculated once, even across restarts.
+ *
+ * <p>
+ * The database is accessed through the thread-local entity manager of the
+ * calling thread. The cache holds immutable copies, never the entities of that
+ * entity manager.
+ */
+@Singleton
+public class DifficultyStore {
+	/**
+	 * An entry takes about 150 bytes.
+	 */
+	static final int MAX_CACHED = 10000;
+
+	/**
+	 * The calculation only depends on the speed and on the circle size.
+	 */
+	@BitwiseMods
+	static final long DIFFICULTY_MODS = getMask(Easy, HardRock, DoubleTime, HalfTime);
+
+	@Value
+	private static class StoredDifficulty implements DifficultyProperties {
+		int allObjectsCount;
+
+		int circleCount;
+
+		double speed;
+
+		double aim;
+
+		int maxCombo;
+
+		static StoredDifficulty copyOf(DifficultyProperties properties) {
+			return new StoredDifficulty(properties.getAllObjectsCount(), properties.getCircleCount(),
+					properties.getSpeed(), properties.getAim(), properties.getMaxCombo());
+		}
+	}
+
+	public interface BeatmapContent {
+		/**
+		 * @return the beatmap file, which will not be modified
+		 */
+		ByteBuffer load() throws IOException;
+	}
+
+	private final BeatmapDifficultyRepository repository;
+
+	private final DifficultyCalculator calculator;
+
+	private final Cache<BeatmapDifficulty.Key, StoredDifficulty> cache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED).build();
+
+	@Inject
+	public DifficultyStore(BeatmapDifficultyRepository repository) {
+		this(repository, new Koohii());
+	}
+
+	DifficultyStore(BeatmapDifficultyRepository repository, DifficultyCalculator calculator) {
+		this.repository = repository;
+		this.calculator = calculator;
+	}
+
+	/**
+	 * @param hash    the md5 hash of the beatmap file, see
+	 *                {@link ActualBeatmap#getHash()}
+	 * @param content the beatmap file, only loaded if the difficulty needs to
+	 *                be calculated
+	 * @param mods    any mods; the ones which do not affect the difficulty are
+	 *                ignored
+	 * @return an immutable object which can be shared between threads
+	 */
+	public DifficultyProperties get(String hash, BeatmapContent content, @BitwiseMods long mods)
+			throws UserException, IOException {
+		BeatmapDifficulty.Key key = new BeatmapDifficulty.Key(hash, getDifficultyMods(mods));
+		try {
+			// concurrent requests for the same key wait for a single calculation
+			return cache.get(key, () -> {
+				Optional<BeatmapDifficulty> stored = repository.findById(key);
+				return StoredDifficulty.copyOf(stored.isPresent() ? stored.get() : calculate(key, content));
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UserException) {
+				throw (UserException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private BeatmapDifficulty calculate(BeatmapDifficulty.Key key, BeatmapContent content)
+			throws UserException, IOException {
+		DifficultyProperties properties = calculator.calculate(content.load(), getMods(key.getMods()));
+		BeatmapDifficulty difficulty = new BeatmapDifficulty(key.getHash(), key.getMods(),
+				properties.getAllObjectsCount(), properties.getCircleCount(), properties.getSpeed(),
+				properties.getAim(), properties.getMaxCombo());
+		repository.save(difficulty);
+		return difficulty;
+	}
+
+	/**
+	 * @return the mods which affect the difficulty calculation
+	 */
+	@BitwiseMods
+	static long getDifficultyMods(@BitwiseMods long mods) {
+		return fixNC(mods) & DIFFICULTY_MODS;
+	}
+}
@@ -4,12 +4,16 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.tillerino.osuApiModel.Mods;
 
 import com.github.francesco149.koohii.Koohii.DiffCalc;
+import com.github.francesco149.koohii.Koohii.HitObject;
 import com.github.francesco149.koohii.Koohii.Map;
 import com.github.francesco149.koohii.Koohii.Parser;
 
@@ -33,9 +37,84 @@ public class Koohii implements DifficultyCalculator {
 	@Override
 	public DifficultyProperties calculate(InputStream is, Collection<Mods> mods)
 			throws UserException, IOException {
-		Parser parser = new Parser();
-		Map map = parser.map(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+		return calculate(parse(is), mods);
+	}
+
+	@Override
+	public DifficultyProperties calculate(ByteBuffer content, Collection<Mods> mods)
+			throws UserException, IOException {
+		return calculate(parse(content), mods);
+	}
+
+	/**
+	 * Parses the beatmap once. The calculations run in parallel in the common
+	 * fork-join pool, each on its own copy of the parsed beatmap.
+	 */
+	@Override
+	public List<DifficultyProperties> calculateAll(InputStream is, List<Collection<Mods>> mods)
+			throws UserException, IOException {
+		return calculateAll(parse(is), mods);
+	}
+
+	@Override
+	public List<DifficultyProperties> calculateAll(ByteBuffer content, List<Collection<Mods>> mods)
+			throws UserException, IOException {
+		return calculateAll(parse(content), mods);
+	}
+
+	private static List<DifficultyProperties> calculateAll(Map map, List<Collection<Mods>> mods) {
+		return mods.parallelStream()
+				.map(m -> calculate(copyForDiffCalc(map), m))
+				.collect(Collectors.toList());
+	}
+
+	private static Map parse(InputStream is) throws IOException {
+		return new Parser().map(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+	}
+
+	private static Map parse(ByteBuffer content) throws IOException {
+		return new Parser().map(new BufferedReader(new OsuFileReader(content)));
+	}
+
+	private static DifficultyProperties calculate(Map map, Collection<Mods> mods) {
 		DiffCalc diff = new DiffCalc().calc(map, (int) Mods.getMask(mods));
 		return new KoohiiDifficulty(map.objects.size(), map.ncircles, diff.speed, diff.aim, map.max_combo());
 	}
+
+	/**
+	 * {@link DiffCalc} stores intermediate results in the {@link HitObject}s,
+	 * so concurrent calculations need their own objects. The parsed data
+	 * ({@link HitObject#data} and the timing points) is only read and can be
+	 * shared.
+	 */
+	static Map copyForDiffCalc(Map original) {
+		Map copy = new Map();
+		copy.format_version = original.format_version;
+		copy.mode = original.mode;
+		copy.title = original.title;
+		copy.title_unicode = original.title_unicode;
+		copy.artist = original.artist;
+		copy.artist_unicode = original.artist_unicode;
+		copy.creator = original.creator;
+		copy.version = original.version;
+		copy.ncircles = original.ncircles;
+		copy.nsliders = original.nsliders;
+		copy.nspinners = original.nspinners;
+		copy.hp = original.hp;
+		copy.cs = original.cs;
+		copy.od = original.od;
+		copy.ar = original.ar;
+		copy.sv = original.sv;
+		copy.tick_rate = original.tick_rate;
+		copy.objects.ensureCapacity(original.objects.size());
+		for (HitObject object : original.objects) {
+			HitObject objectCopy = new HitObject();
+			objectCopy.time = object.time;
+			objectCopy.type = object.type;
+			objectCopy.data = object.data;
+			copy.objects.add(objectCopy);
+		}
+		copy.tpoints.addAll(original.tpoints);
+		return copy;
+	}
 }
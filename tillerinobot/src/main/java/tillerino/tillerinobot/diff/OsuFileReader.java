@@ -0,0 +1,149 @@
+package tillerino.tillerinobot.diff;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reads an .osu file straight from its bytes for Koohii's parser. There is
+ * no intermediate String or char[] of the entire file: every line is decoded
+ * from the buffer on its own, and the lines of {@link #SKIPPED_SECTIONS} are
+ * not decoded at all. The buffer can be a wrapped array or a memory-mapped
+ * file.
+ *
+ * <p>
+ * The lines are returned with {@code \n} as the line terminator. Wrap this in
+ * a {@link BufferedReader} to read them.
+ */
+class OsuFileReader extends Reader {
+	/**
+	 * Sections which are not needed for the difficulty calculation. The
+	 * storyboard in [Events] can be larger than the rest of the file.
+	 */
+	static final Set<String> SKIPPED_SECTIONS = Set.of("[Events]", "[Colours]", "[Editor]");
+
+	private final ByteBuffer buffer;
+
+	private byte[] scratch = new byte[0];
+
+	private boolean skipping = false;
+
+	/**
+	 * The line which is being read, without its terminator. null between
+	 * lines.
+	 */
+	private String line = null;
+
+	private int linePosition = 0;
+
+	/**
+	 * @param content is not modified
+	 */
+	OsuFileReader(ByteBuffer content) {
+		buffer = content.duplicate();
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		Objects.checkFromIndexSize(off, len, cbuf.length);
+		int read = 0;
+		while (read < len) {
+			if (line == null) {
+				line = nextLine();
+				linePosition = 0;
+				if (line == null) {
+					break;
+				}
+			}
+			if (linePosition < line.length()) {
+				int n = Math.min(len - read, line.length() - linePosition);
+				line.getChars(linePosition, linePosition + n, cbuf, off + read);
+				linePosition += n;
+				read += n;
+			} else {
+				cbuf[off + read++] = '\n';
+				line = null;
+			}
+		}
+		return read == 0 && len > 0 ? -1 : read;
+	}
+
+	@Override
+	public boolean ready() {
+		return line != null || buffer.hasRemaining();
+	}
+
+	@Override
+	public void close() {
+		// nothing to release, the buffer belongs to the caller
+	}
+
+	/**
+	 * @return the next line which is not skipped, null at the end of the file
+	 */
+	private String nextLine() {
+		while (buffer.hasRemaining()) {
+			int start = buffer.position();
+			int limit = buffer.limit();
+			int end = start;
+			while (end < limit && buffer.get(end) != '\n' && buffer.get(end) != '\r') {
+				end++;
+			}
+			int next = end;
+			if (next < limit && buffer.get(next++) == '\r' && next < limit && buffer.get(next) == '\n') {
+				next++;
+			}
+			buffer.position(next);
+
+			if (isSectionHeader(start, end)) {
+				String line = decode(start, end);
+				skipping = SKIPPED_SECTIONS.contains(line.trim());
+				if (!skipping) {
+					return line;
+				}
+			} else if (!skipping) {
+				return decode(start, end);
+			}
+		}
+		return null;
+	}
+
+	private boolean isSectionHeader(int start, int end) {
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b != ' ' && b != '\t') {
+				return b == '[';
+			}
+		}
+		return false;
+	}
+
+	private String decode(int start, int end) {
+		int length = end - start;
+		byte[] bytes;
+		int offset;
+		if (buffer.hasArray()) {
+			bytes = buffer.array();
+			offset = buffer.arrayOffset() + start;
+		} else {
+			if (scratch.length < length) {
+				scratch = new byte[Math.max(length, 2 * scratch.length)];
+			}
+			buffer.get(start, scratch, 0, length);
+			bytes = scratch;
+			offset = 0;
+		}
+		// almost all lines are ASCII, which is cheaper to decode as Latin-1
+		for (int i = offset; i < offset + length; i++) {
+			if (bytes[i] < 0) {
+				return new String(bytes, offset, length, UTF_8);
+			}
+		}
+		return new String(bytes, offset, length, ISO_8859_1);
+	}
+}
@@ -15,6 +15,8 @@ import static org.tillerino.osuApiModel.Mods.TouchDevice;
 import static tillerino.tillerinobot.diff.MathHelper.Clamp;
 import static tillerino.tillerinobot.diff.MathHelper.static_cast;
 
+import java.util.Arrays;
+
 import org.tillerino.osuApiModel.OsuApiScore;
 import org.tillerino.osuApiModel.types.BitwiseMods;
 
@@ -28,6 +30,14 @@ import org.tillerino.osuApiModel.types.BitwiseMods;
  * This file violates all Java coding standards to be as easily comparable to
  * the original as possible.
  * 
+ * <p>
+ * The computation itself is static and does not allocate, see
+ * {@link #computePP(Beatmap, int, int, int, int, int, long)}. The mods are
+ * checked once per computation and every difficulty attribute is only
+ * queried once. Everything which does not depend on the hit counts is split
+ * off so that
+ * {@link #computePP(Beatmap, int, int, int, long, double[], double[])} can
+ * compute it once for a number of accuracies.
  */
 // suppress all found Sonar warnings, since we are trying to copy C# code
 @SuppressWarnings({ "squid:S00116", "squid:S00117", "squid:ClassVariableVisibilityCheck", "squid:S00100" })
@@ -62,13 +72,7 @@ public class OsuScore {
 	public double _speedValue;
 	
 public double getPP(Beatmap beatmap){
-	computeAimValue(beatmap);
-	computeSpeedValue(beatmap);
-	computeAccValue(beatmap);
-
-	computeTotalValue();
-
-	return TotalValue();
+	return compute(beatmap, _maxCombo, _num300, _num100, _num50, _numMiss, _mods, this);
 }
 
 double TotalValue()
@@ -76,37 +80,141 @@ double TotalValue()
 	return _totalValue;
 }
 
-double Accuracy()
+/**
+ * Computes the pp of a score without creating an {@link OsuScore}. Does not
+ * allocate.
+ */
+public static double computePP(Beatmap beatmap, int maxCombo, int num300, int num100, int num50, int numMiss,
+		@BitwiseMods long mods) {
+	return compute(beatmap, maxCombo, num300, num100, num50, numMiss, mods, null);
+}
+
+/**
+ * Computes the pp for a number of accuracies with the same combo and misses.
+ * The parts which do not depend on the accuracy are only computed once.
+ *
+ * @param numObjects the number of hit objects in the beatmap
+ * @param accs       accuracies between 0 and 1
+ * @param out        receives the pp for each accuracy, at least as long as
+ *                   {@code accs}
+ */
+public static void computePP(Beatmap beatmap, int maxCombo, int numObjects, int numMiss, @BitwiseMods long mods,
+		double[] accs, double[] out) {
+	if (!isRanked(mods)) {
+		Arrays.fill(out, 0, accs.length, 0);
+		return;
+	}
+
+	final boolean hidden = Hidden.is(mods);
+	final boolean flashlight = Flashlight.is(mods);
+
+	final double overallDifficulty = beatmap.DifficultyAttribute(mods, Beatmap.OD);
+	final double approachRate = beatmap.DifficultyAttribute(mods, Beatmap.AR);
+
+	final double LengthBonus = LengthBonus(numObjects);
+	final double missPenalty = pow(0.97f, numMiss);
+	final double comboScaling = comboScaling(maxCombo, beatmap.DifficultyAttribute(mods, Beatmap.MaxCombo));
+
+	final double aimBase = aimValueBeforeAccuracy(rawAim(beatmap, mods), approachRate, overallDifficulty, numObjects,
+		LengthBonus, missPenalty, comboScaling, hidden, flashlight);
+	final double speedBase = speedValueBeforeAccuracy(beatmap.DifficultyAttribute(mods, Beatmap.Speed), approachRate,
+		overallDifficulty, LengthBonus, missPenalty, comboScaling, hidden);
+	final boolean scoreV2 = beatmap.ScoreVersion() == Beatmap.EScoreVersion.ScoreV2;
+	final int numHitObjectsWithAccuracy = scoreV2 ? numObjects : beatmap.NumHitCircles();
+	final double accBase = accValueBeforeAccuracy(overallDifficulty, numHitObjectsWithAccuracy, hidden, flashlight);
+	final double multiplier = multiplier(mods);
+
+	AccuracyDistribution.Mutable dist = new AccuracyDistribution.Mutable();
+	for (int i = 0; i < accs.length; i++) {
+		AccuracyDistribution.get(numObjects, numMiss, accs[i], dist);
+		double accuracy = Accuracy(dist.x300, dist.x100, dist.x50, dist.miss);
+		out[i] = TotalValue(
+			aimBase * (0.5f + accuracy / 2.0f),
+			speedBase * (0.02f + accuracy),
+			accBase * pow(betterAccuracyPercentage(scoreV2, dist.x300, dist.x100, dist.x50, numObjects,
+				numHitObjectsWithAccuracy, accuracy), 24),
+			multiplier);
+	}
+}
+
+static double Accuracy(int num300, int num100, int num50, int numMiss)
 {
-	if (TotalHits() == 0)
+	int totalHits = TotalHits(num300, num100, num50, numMiss);
+	if (totalHits == 0)
 		return 0;
 
 	return Clamp(
-		static_cast(_num50 * 50 + _num100 * 100 + _num300 * 300) / (TotalHits() * 300), 0.0f, 1.0f
+		static_cast(num50 * 50 + num100 * 100 + num300 * 300) / (totalHits * 300), 0.0f, 1.0f
 	);
 }
 
-int TotalHits()
+static int TotalHits(int num300, int num100, int num50, int numMiss)
 {
-	return _num50 + _num100 + _num300 + _numMiss;
+	return num50 + num100 + num300 + numMiss;
 }
 
-int TotalSuccessfulHits()
+/**
+ * @param components if not null, the aim, speed, acc and total values are
+ *                   stored in this object
+ */
+private static double compute(Beatmap beatmap, int _maxCombo, int _num300, int _num100, int _num50,
+		int _numMiss, @BitwiseMods long _mods, OsuScore components)
 {
-	return _num50 + _num100 + _num300;
+	if (!isRanked(_mods))
+	{
+		if (components != null)
+			components._totalValue = 0;
+		return 0;
+	}
+
+	final boolean hidden = Hidden.is(_mods);
+	final boolean flashlight = Flashlight.is(_mods);
+
+	final double overallDifficulty = beatmap.DifficultyAttribute(_mods, Beatmap.OD);
+	final double approachRate = beatmap.DifficultyAttribute(_mods, Beatmap.AR);
+
+	final int numTotalHits = TotalHits(_num300, _num100, _num50, _numMiss);
+	final double accuracy = Accuracy(_num300, _num100, _num50, _numMiss);
+
+	final double LengthBonus = LengthBonus(numTotalHits);
+	// Penalize misses exponentially. This mainly fixes tag4 maps and the likes until a per-hitobject solution is available
+	final double missPenalty = pow(0.97f, _numMiss);
+	final double comboScaling = comboScaling(_maxCombo, beatmap.DifficultyAttribute(_mods, Beatmap.MaxCombo));
+
+	// Scale the aim value with accuracy _slightly_
+	double aimValue = aimValueBeforeAccuracy(rawAim(beatmap, _mods), approachRate, overallDifficulty, numTotalHits,
+		LengthBonus, missPenalty, comboScaling, hidden, flashlight) * (0.5f + accuracy / 2.0f);
+	// Scale the speed value with accuracy _slightly_
+	double speedValue = speedValueBeforeAccuracy(beatmap.DifficultyAttribute(_mods, Beatmap.Speed), approachRate,
+		overallDifficulty, LengthBonus, missPenalty, comboScaling, hidden) * (0.02f + accuracy);
+
+	final boolean scoreV2 = beatmap.ScoreVersion() == Beatmap.EScoreVersion.ScoreV2;
+	final int numHitObjectsWithAccuracy = scoreV2 ? numTotalHits : beatmap.NumHitCircles();
+	double accValue = accValueBeforeAccuracy(overallDifficulty, numHitObjectsWithAccuracy, hidden, flashlight)
+		* pow(betterAccuracyPercentage(scoreV2, _num300, _num100, _num50, numTotalHits, numHitObjectsWithAccuracy,
+			accuracy), 24);
+
+	double totalValue = TotalValue(aimValue, speedValue, accValue, multiplier(_mods));
+
+	if (components != null) {
+		components._aimValue = aimValue;
+		components._speedValue = speedValue;
+		components._accValue = accValue;
+		components._totalValue = totalValue;
+	}
+	return totalValue;
 }
 
-void computeTotalValue()
+static boolean isRanked(@BitwiseMods long _mods)
 {
 	// Don't count scores made with supposedly unranked mods
-	if (Relax.is(_mods) ||
+	return !(Relax.is(_mods) ||
 		Relax2.is(_mods) ||
-		Autoplay.is(_mods))
-	{
-		_totalValue = 0;
-		return;
-	}
+		Autoplay.is(_mods));
+}
 
+static double multiplier(@BitwiseMods long _mods)
+{
 	// Custom multipliers for NoFail and SpunOut.
 	double multiplier = 1.12f; // This is being adjusted to keep the final pp value scaled around what it used to be when changing things
 
@@ -116,7 +224,12 @@ void computeTotalValue()
 	if (SpunOut.is(_mods))
 		multiplier *= 0.95f;
 
-	_totalValue =
+	return multiplier;
+}
+
+static double TotalValue(double _aimValue, double _speedValue, double _accValue, double multiplier)
+{
+	return
 		pow(
 			pow(_aimValue, 1.1f) +
 			pow(_speedValue, 1.1f) +
@@ -124,32 +237,45 @@ void computeTotalValue()
 		) * multiplier;
 }
 
-void computeAimValue(Beatmap beatmap)
+static double rawAim(Beatmap beatmap, @BitwiseMods long _mods)
 {
 	double rawAim = beatmap.DifficultyAttribute(_mods, Beatmap.Aim);
 
 	if (TouchDevice.is(_mods))
 		rawAim = pow(rawAim, 0.8f);
 
-	_aimValue = pow(5.0f * max(1.0f, rawAim / 0.0675f) - 4.0f, 3.0f) / 100000.0f;
-
-	int numTotalHits = TotalHits();
+	return rawAim;
+}
 
+static double LengthBonus(int numTotalHits)
+{
 	// Longer maps are worth more
-	double LengthBonus = 0.95f + 0.4f * min(1.0f, static_cast(numTotalHits) / 2000.0f) +
+	return 0.95f + 0.4f * min(1.0f, static_cast(numTotalHits) / 2000.0f) +
 		(numTotalHits > 2000 ? log10(static_cast(numTotalHits) / 2000.0f) * 0.5f : 0.0f);
+}
+
+static double comboScaling(int _maxCombo, double maxCombo)
+{
+	// Combo scaling
+	if (maxCombo > 0)
+		return min(static_cast(pow(_maxCombo, 0.8f) / pow(maxCombo, 0.8f)), 1.0f);
+	return 1.0f;
+}
+
+/**
+ * The aim value without the accuracy scaling {@code 0.5 + accuracy / 2}.
+ */
+static double aimValueBeforeAccuracy(double rawAim, double approachRate, double overallDifficulty, int numTotalHits,
+	double LengthBonus, double missPenalty, double comboScaling, boolean hidden, boolean flashlight)
+{
+	double _aimValue = pow(5.0f * max(1.0f, rawAim / 0.0675f) - 4.0f, 3.0f) / 100000.0f;
 
 	_aimValue *= LengthBonus;
 
-	// Penalize misses exponentially. This mainly fixes tag4 maps and the likes until a per-hitobject solution is available
-	_aimValue *= pow(0.97f, _numMiss);
+	_aimValue *= missPenalty;
 
-	// Combo scaling
-	double maxCombo = beatmap.DifficultyAttribute(_mods, Beatmap.MaxCombo);
-	if (maxCombo > 0)
-		_aimValue *= min(static_cast(pow(_maxCombo, 0.8f) / pow(maxCombo, 0.8f)), 1.0f);
+	_aimValue *= comboScaling;
 
-	double approachRate = beatmap.DifficultyAttribute(_mods, Beatmap.AR);
 	double approachRateFactor = 1.0f;
 	if (approachRate > 10.33f)
 		approachRateFactor += 0.3f * (approachRate - 10.33f);
@@ -161,95 +287,87 @@ void computeAimValue(Beatmap beatmap)
 	_aimValue *= approachRateFactor;
 
 	// We want to give more reward for lower AR when it comes to aim and HD. This nerfs high AR and buffs lower AR.
-	if (Hidden.is(_mods))
+	if (hidden)
 		_aimValue *= 1.0f + 0.04f * (12.0f - approachRate);
 	
-	if (Flashlight.is(_mods))
+	if (flashlight)
 		// Apply object-based bonus for flashlight.
 		_aimValue *= 1.0f + 0.35f * min(1.0f, static_cast(numTotalHits) / 200.0f) +
          		(numTotalHits > 200 ? 0.3f * min(1.0f, static_cast(numTotalHits - 200) / 300.0f) +
          		(numTotalHits > 500 ? static_cast(numTotalHits - 500) / 1200.0f : 0.0f) : 0.0f);
 
-	// Scale the aim value with accuracy _slightly_
-	_aimValue *= 0.5f + Accuracy() / 2.0f;
 	// It is important to also consider accuracy difficulty when doing that
-	_aimValue *= 0.98f + (pow(beatmap.DifficultyAttribute(_mods, Beatmap.OD), 2) / 2500);
+	_aimValue *= 0.98f + (pow(overallDifficulty, 2) / 2500);
+	return _aimValue;
 }
 
-void computeSpeedValue(Beatmap beatmap)
+/**
+ * The speed value without the accuracy scaling {@code 0.02 + accuracy}.
+ */
+static double speedValueBeforeAccuracy(double rawSpeed, double approachRate, double overallDifficulty,
+	double LengthBonus, double missPenalty, double comboScaling, boolean hidden)
 {
-	_speedValue = pow(5.0f * max(1.0f, beatmap.DifficultyAttribute(_mods, Beatmap.Speed) / 0.0675f) - 4.0f, 3.0f) / 100000.0f;
+	double _speedValue = pow(5.0f * max(1.0f, rawSpeed / 0.0675f) - 4.0f, 3.0f) / 100000.0f;
 
-	int numTotalHits = TotalHits();
-
-	double approachRate = beatmap.DifficultyAttribute(_mods, Beatmap.AR);
 	double approachRateFactor = 1.0f;
 	if (approachRate > 10.33f)
 		approachRateFactor += 0.3f * (approachRate - 10.33f);
 
 	_speedValue *= approachRateFactor;
 	
-	// Longer maps are worth more
-	_speedValue *=
-		0.95f + 0.4f * min(1.0f, static_cast(numTotalHits) / 2000.0f) +
-		(numTotalHits > 2000 ? log10(static_cast(numTotalHits) / 2000.0f) * 0.5f : 0.0f);
+	_speedValue *= LengthBonus;
 
-	// Penalize misses exponentially. This mainly fixes tag4 maps and the likes until a per-hitobject solution is available
-	_speedValue *= pow(0.97f, _numMiss);
+	_speedValue *= missPenalty;
 
-	// Combo scaling
-	double maxCombo = beatmap.DifficultyAttribute(_mods, Beatmap.MaxCombo);
-	if (maxCombo > 0)
-		_speedValue *= min(static_cast(pow(_maxCombo, 0.8f) / pow(maxCombo, 0.8f)), 1.0f);
+	_speedValue *= comboScaling;
 
 	// We want to give more reward for lower AR when it comes to speed and HD. This nerfs high AR and buffs lower AR.
-	if (Hidden.is(_mods))
+	if (hidden)
 		_speedValue *= 1.0f + 0.04f * (12.0f - approachRate);
 
-	// Scale the speed value with accuracy _slightly_
-	_speedValue *= 0.02f + Accuracy();
 	// It is important to also consider accuracy difficulty when doing that
-	_speedValue *= 0.96f + (pow(beatmap.DifficultyAttribute(_mods, Beatmap.OD), 2) / 1600);
+	_speedValue *= 0.96f + (pow(overallDifficulty, 2) / 1600);
+	return _speedValue;
 }
 
-void computeAccValue(Beatmap beatmap)
+static double betterAccuracyPercentage(boolean scoreV2, int _num300, int _num100, int _num50, int numTotalHits,
+	int numHitObjectsWithAccuracy, double accuracy)
 {
 	// This percentage only considers HitCircles of any value - in this part of the calculation we focus on hitting the timing hit window
-	double betterAccuracyPercentage;
+	if (scoreV2)
+		return accuracy;
 
-	int numHitObjectsWithAccuracy;
-	if (beatmap.ScoreVersion() == Beatmap.EScoreVersion.ScoreV2)
-	{
-		numHitObjectsWithAccuracy = TotalHits();
-		betterAccuracyPercentage = Accuracy();
-	}
 	// Either ScoreV1 or some unknown value. Let's default to previous behavior.
+	double betterAccuracyPercentage;
+	if (numHitObjectsWithAccuracy > 0)
+		betterAccuracyPercentage = static_cast((_num300 - (numTotalHits - numHitObjectsWithAccuracy)) * 6 + _num100 * 2 + _num50) / (numHitObjectsWithAccuracy * 6);
 	else
-	{
-		numHitObjectsWithAccuracy = beatmap.NumHitCircles();
-		if (numHitObjectsWithAccuracy > 0)
-			betterAccuracyPercentage = static_cast((_num300 - (TotalHits() - numHitObjectsWithAccuracy)) * 6 + _num100 * 2 + _num50) / (numHitObjectsWithAccuracy * 6);
-		else
-			betterAccuracyPercentage = 0;
-
-		// It is possible to reach a negative accuracy with this formula. Cap it at zero - zero points
-		if (betterAccuracyPercentage < 0)
-			betterAccuracyPercentage = 0;
-	}
+		betterAccuracyPercentage = 0;
 
+	// It is possible to reach a negative accuracy with this formula. Cap it at zero - zero points
+	if (betterAccuracyPercentage < 0)
+		betterAccuracyPercentage = 0;
+	return betterAccuracyPercentage;
+}
+
+/**
+ * The acc value without the factor {@code betterAccuracyPercentage ^ 24}.
+ */
+static double accValueBeforeAccuracy(double overallDifficulty, int numHitObjectsWithAccuracy, boolean hidden,
+	boolean flashlight)
+{
 	// Lots of arbitrary values from testing.
 	// Considering to use derivation from perfect accuracy in a probabilistic manner - assume normal distribution
-	_accValue =
-		pow(1.52163f, beatmap.DifficultyAttribute(_mods, Beatmap.OD)) * pow(betterAccuracyPercentage, 24) *
-		2.83f;
+	double _accValue = pow(1.52163f, overallDifficulty) * 2.83f;
 
 	// Bonus for many hitcircles - it's harder to keep good accuracy up for longer
 	_accValue *= min(1.15f, static_cast(pow(numHitObjectsWithAccuracy / 1000.0f, 0.3f)));
 
-	if (Hidden.is(_mods))
+	if (hidden)
 		_accValue *= 1.08f;
 
-	if (Flashlight.is(_mods))
+	if (flashlight)
 		_accValue *= 1.02f;
+	return _accValue;
 }
 }
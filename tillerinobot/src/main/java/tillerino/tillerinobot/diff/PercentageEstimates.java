@@ -10,8 +10,35 @@ import javax.annotation.CheckForNull;
  * that the value is estimated although the value is usually quite accurate.
  */
 public interface PercentageEstimates {
+	/**
+	 * pp for the given accuracy. Implementations may approximate between
+	 * common accuracies.
+	 */
 	public double getPP(double acc);
 
+	/**
+	 * Same as {@link #getPP(double)}, but never approximated. Use this for
+	 * accuracies which were specified by the user.
+	 */
+	public default double getExactPP(double acc) {
+		return getPP(acc);
+	}
+
+	/**
+	 * Exact pp for a number of accuracies at once, see
+	 * {@link #getExactPP(double)}. Implementations can share the parts of the
+	 * computation which do not depend on the accuracy.
+	 *
+	 * @param accs accuracies between 0 and 1
+	 * @param out  receives the pp for each accuracy, at least as long as
+	 *             {@code accs}
+	 */
+	public default void getPP(double[] accs, double[] out) {
+		for (int i = 0; i < accs.length; i++) {
+			out[i] = getExactPP(accs[i]);
+		}
+	}
+
 	public double getPP(double acc, int combo, int misses);
 
 	public double getPP(int x100, int x50, int combo, int misses);
@@ -1,49 +1,125 @@
 package tillerino.tillerinobot.diff;
 
+import java.util.Arrays;
+
 import org.tillerino.osuApiModel.types.BitwiseMods;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 @Data
 @NoArgsConstructor(onConstructor = @__(@Deprecated))
 public class PercentageEstimatesImpl implements PercentageEstimates {
+	/**
+	 * {@link #getPP(double)} is tabulated from this accuracy up to 100%.
+	 */
+	static final double TABLE_MIN_ACC = .8;
+
+	/**
+	 * The table has one entry per 0.1% of accuracy.
+	 */
+	static final int TABLE_STEPS_PER_UNIT = 1000;
+
+	static final int TABLE_SIZE = (int) Math.round((1 - TABLE_MIN_ACC) * TABLE_STEPS_PER_UNIT) + 1;
+
 	private BeatmapImpl beatmap;
 
 	private @BitwiseMods long mods;
 
+	/**
+	 * pp for the accuracies TABLE_MIN_ACC, TABLE_MIN_ACC + 0.1%, ..., 100%.
+	 * Entries are computed on first use and are NaN until then. Concurrent
+	 * fills compute the same value, so there is no need to synchronize.
+	 */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@EqualsAndHashCode.Exclude
+	@ToString.Exclude
+	private transient volatile float[] ppTable;
+
 	public PercentageEstimatesImpl(BeatmapImpl beatmap, @BitwiseMods long mods) {
 		super();
 		this.beatmap = beatmap;
 		this.mods = mods;
 	}
 
+	public void setBeatmap(BeatmapImpl beatmap) {
+		this.beatmap = beatmap;
+		ppTable = null;
+	}
+
+	public void setMods(@BitwiseMods long mods) {
+		this.mods = mods;
+		ppTable = null;
+	}
+
+	/**
+	 * Accuracies between {@value #TABLE_MIN_ACC} and 1 are looked up in a
+	 * table with 0.1% steps and interpolated linearly in between. Use
+	 * {@link #getExactPP(double)} if the exact value is required.
+	 */
 	@Override
 	public double getPP(double acc) {
-		AccuracyDistribution dist = AccuracyDistribution.get(getBeatmap().getObjectCount(), 0, acc);
+		double position = (acc - TABLE_MIN_ACC) * TABLE_STEPS_PER_UNIT;
+		if (!(position >= -1E-6 && position <= TABLE_SIZE - 1 + 1E-6)) {
+			return getExactPP(acc);
+		}
+		float[] table = ppTable;
+		if (table == null) {
+			table = new float[TABLE_SIZE];
+			Arrays.fill(table, Float.NaN);
+			ppTable = table;
+		}
+		int lower = (int) Math.floor(position);
+		double fraction = position - lower;
+		if (fraction < 1E-6) {
+			return tabulated(table, lower);
+		}
+		if (fraction > 1 - 1E-6) {
+			return tabulated(table, lower + 1);
+		}
+		double lowerPp = tabulated(table, lower);
+		return lowerPp + (tabulated(table, lower + 1) - lowerPp) * fraction;
+	}
+
+	private double tabulated(float[] table, int index) {
+		float pp = table[index];
+		if (Float.isNaN(pp)) {
+			// (800 + i) / 1000. is the closest double to the accuracy, e.g. .98
+			pp = table[index] = (float) getExactPP(
+					(Math.round(TABLE_MIN_ACC * TABLE_STEPS_PER_UNIT) + index) / (double) TABLE_STEPS_PER_UNIT);
+		}
+		return pp;
+	}
 
-		OsuScore score = new OsuScore((int) getBeatmap().DifficultyAttribute(getMods(), Beatmap.MaxCombo),
-				dist.getX300(), dist.getX100(), dist.getX50(), dist.getMiss(), getMods());
+	@Override
+	public double getExactPP(double acc) {
+		return getPP(acc, (int) beatmap.DifficultyAttribute(mods, Beatmap.MaxCombo), 0);
+	}
 
-		return score.getPP(getBeatmap());
+	@Override
+	public void getPP(double[] accs, double[] out) {
+		OsuScore.computePP(beatmap, (int) beatmap.DifficultyAttribute(mods, Beatmap.MaxCombo),
+				beatmap.getObjectCount(), 0, mods, accs, out);
 	}
 
 	@Override
 	public double getPP(double acc, int combo, int misses) {
-		AccuracyDistribution dist = AccuracyDistribution.get(getBeatmap().getObjectCount(), misses, acc);
-
-		OsuScore score = new OsuScore(combo, dist.getX300(), dist.getX100(), dist.getX50(), dist.getMiss(),
-				getMods());
+		AccuracyDistribution.Mutable dist = new AccuracyDistribution.Mutable();
+		AccuracyDistribution.get(beatmap.getObjectCount(), misses, acc, dist);
 
-		return score.getPP(getBeatmap());
+		return OsuScore.computePP(beatmap, combo, dist.x300, dist.x100, dist.x50, dist.miss, mods);
 	}
 
 	@Override
 	public double getPP(int x100, int x50, int combo, int misses) {
-		int x300 = getBeatmap().getObjectCount() - x50 - x100;
-		OsuScore score = new OsuScore(combo, x300, x100, x50, misses, getMods());
-
-		return score.getPP(getBeatmap());
+		int x300 = beatmap.getObjectCount() - x50 - x100;
+		return OsuScore.computePP(beatmap, combo, x300, x100, x50, misses, mods);
 	}
 
 	@Override
@@ -3,6 +3,7 @@ package tillerino.tillerinobot.predicates;
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 
 import lombok.EqualsAndHashCode;
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Attribute;
 
 @EqualsAndHashCode
 public class ApproachRate implements NumericBeatmapProperty {
@@ -15,4 +16,9 @@ public class ApproachRate implements NumericBeatmapProperty {
 	public double getValue(OsuApiBeatmap beatmap, long mods) {
 		return beatmap.getApproachRate(mods);
 	}
+
+	@Override
+	public Attribute getIndexedAttribute() {
+		return Attribute.AR;
+	}
 }
@@ -0,0 +1,379 @@
+package tillerino.tillerinobot.predicates;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToDoubleFunction;
+
+import org.tillerino.osuApiModel.OsuApiBeatmap;
+import org.tillerino.osuApiModel.types.BeatmapId;
+import org.tillerino.osuApiModel.types.BitwiseMods;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import tillerino.tillerinobot.BotBackend.BeatmapsLoader;
+
+/**
+ * In-memory index of the numeric beatmap attributes which can be requested
+ * through {@link NumericPropertyPredicate}. The attributes are kept in
+ * primitive columns, so that predicates can be checked for many
+ * recommendations at once without ever loading {@link OsuApiBeatmap} objects.
+ *
+ * <p>
+ * The index is filled incrementally: beatmaps are loaded when they are first
+ * requested in {@link #ensureLoaded(BeatmapsLoader, int[])} and reloaded once
+ * they are older than a day. Once the index would hold more than
+ * {@value #MAX_SIZE} beatmaps, all but the most recently loaded half are
+ * dropped and the table is shrunk. The beatmaps of the request which causes
+ * this are always kept.
+ *
+ * <p>
+ * Requests don't read from the index itself, but from the {@link Snapshot}
+ * which {@link #ensureLoaded(BeatmapsLoader, int[])} returns, so beatmaps
+ * which are dropped by another request in the meantime are not missing.
+ */
+public class BeatmapAttributeIndex {
+	/**
+	 * An indexed attribute. The index stores the nomod value, the mods are
+	 * applied when filtering.
+	 */
+	@RequiredArgsConstructor
+	public enum Attribute {
+		AR(OsuApiBeatmap::getApproachRate) {
+			@Override
+			double applyMods(double nomod, long mods) {
+				return OsuApiBeatmap.calcAR(nomod, mods);
+			}
+		},
+		OD(OsuApiBeatmap::getOverallDifficulty) {
+			@Override
+			double applyMods(double nomod, long mods) {
+				return OsuApiBeatmap.calcOd(nomod, mods);
+			}
+		},
+		CS(OsuApiBeatmap::getCircleSize) {
+			@Override
+			double applyMods(double nomod, long mods) {
+				return OsuApiBeatmap.calcCircleSize(nomod, mods);
+			}
+		},
+		BPM(OsuApiBeatmap::getBpm) {
+			@Override
+			double applyMods(double nomod, long mods) {
+				return OsuApiBeatmap.calcBpm(nomod, mods);
+			}
+		},
+		LENGTH(OsuApiBeatmap::getTotalLength) {
+			@Override
+			double applyMods(double nomod, long mods) {
+				return OsuApiBeatmap.calcTotalLength((int) nomod, mods);
+			}
+		},
+		/**
+		 * The star difficulty from the API does not depend on mods.
+		 */
+		STARS(OsuApiBeatmap::getStarDifficulty) {
+			@Override
+			double applyMods(double nomod, long mods) {
+				return nomod;
+			}
+		};
+
+		private final ToDoubleFunction<OsuApiBeatmap> nomodValue;
+
+		abstract double applyMods(double nomod, @BitwiseMods long mods);
+	}
+
+	/**
+	 * The attributes of the beatmaps of a single request, copied out of the
+	 * index.
+	 */
+	@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+	public static class Snapshot {
+		/**
+		 * sorted and distinct
+		 */
+		private final int[] beatmapIds;
+		/**
+		 * false if the beatmap was not found
+		 */
+		private final boolean[] exists;
+		private final double[][] columns;
+
+		/**
+		 * Marks all recommendations whose attribute is outside of the given
+		 * range as rejected. Recommendations for beatmaps which are not known
+		 * are rejected as well.
+		 *
+		 * @param beatmapIds beatmap ids of the recommendations. These should
+		 *        all have been passed to
+		 *        {@link BeatmapAttributeIndex#ensureLoaded(BeatmapsLoader, int[])}.
+		 * @param mods mods of the recommendations, aligned with beatmapIds
+		 * @param rejected bit i is set if recommendation i is rejected
+		 */
+		public void rejectOutside(@BeatmapId int[] beatmapIds, @BitwiseMods long[] mods, Attribute attribute,
+				double min, boolean includeMin, double max, boolean includeMax, BitSet rejected) {
+			double[] column = columns[attribute.ordinal()];
+			for (int i = 0; i < beatmapIds.length; i++) {
+				int index = Arrays.binarySearch(this.beatmapIds, beatmapIds[i]);
+				if (index < 0 || !exists[index]) {
+					rejected.set(i);
+					continue;
+				}
+				double value = attribute.applyMods(column[index], mods[i]);
+				if (value < min || (value <= min && !includeMin) || value > max || (value >= max && !includeMax)) {
+					rejected.set(i);
+				}
+			}
+		}
+	}
+
+	static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * A beatmap takes about 120 bytes including the free slots, so this is
+	 * about 12MB.
+	 */
+	static final int MAX_SIZE = 100_000;
+
+	private static final int MIN_CAPACITY = 1024;
+
+	private static final Attribute[] ATTRIBUTES = Attribute.values();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/*
+	 * Open addressing hash table with linear probing. The columns are aligned
+	 * with the keys. 0 marks an empty slot, since there is no beatmap with that
+	 * id.
+	 */
+	private int[] keys = new int[MIN_CAPACITY];
+	private long[] loadedAt = new long[keys.length];
+	/**
+	 * false if the beatmap was not found
+	 */
+	private boolean[] exists = new boolean[keys.length];
+	private double[][] columns = new double[ATTRIBUTES.length][keys.length];
+	private int size = 0;
+
+	private final int maxSize;
+
+	public BeatmapAttributeIndex() {
+		this(MAX_SIZE);
+	}
+
+	BeatmapAttributeIndex(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Makes sure that the given beatmaps are in the index. Missing or outdated
+	 * beatmaps are loaded in a single batch.
+	 *
+	 * @param loader loads missing beatmaps
+	 * @param beatmapIds may contain duplicates
+	 * @return the attributes of the given beatmaps
+	 */
+	public Snapshot ensureLoaded(BeatmapsLoader loader, @BeatmapId int[] beatmapIds) throws SQLException, IOException {
+		long now = System.currentTimeMillis();
+		int[] ids = Arrays.stream(beatmapIds).distinct().sorted().toArray();
+		boolean[] found = new boolean[ids.length];
+		double[][] values = new double[ATTRIBUTES.length][ids.length];
+		int[] missing = new int[ids.length];
+		int[] missingIndexes = new int[ids.length];
+		int missingCount = 0;
+		lock.readLock().lock();
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				int slot = find(ids[i]);
+				if (keys[slot] == 0 || loadedAt[slot] < now - MAX_AGE) {
+					missingIndexes[missingCount] = i;
+					missing[missingCount++] = ids[i];
+					continue;
+				}
+				found[i] = exists[slot];
+				for (int column = 0; column < values.length; column++) {
+					values[column][i] = columns[column][slot];
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		Snapshot snapshot = new Snapshot(ids, found, values);
+		if (missingCount == 0) {
+			return snapshot;
+		}
+
+		missing = Arrays.copyOf(missing, missingCount);
+		OsuApiBeatmap[] beatmaps = loader.getBeatmaps(missing);
+		for (int i = 0; i < missing.length; i++) {
+			found[missingIndexes[i]] = beatmaps[i] != null;
+			for (Attribute attribute : ATTRIBUTES) {
+				values[attribute.ordinal()][missingIndexes[i]] = nomodValue(attribute, beatmaps[i]);
+			}
+		}
+
+		lock.writeLock().lock();
+		try {
+			if (size + missing.length > maxSize) {
+				evict(maxSize / 2, ids);
+			}
+			for (int i = 0; i < missing.length; i++) {
+				put(missing[i], beatmaps[i], now);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return snapshot;
+	}
+
+	boolean contains(@BeatmapId int beatmapId) {
+		lock.readLock().lock();
+		try {
+			return keys[find(beatmapId)] != 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the length of the table
+	 */
+	int capacity() {
+		lock.readLock().lock();
+		try {
+			return keys.length;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the slot which contains the given key or the empty slot where
+	 *         it would be inserted
+	 */
+	private int find(int beatmapId) {
+		int mask = keys.length - 1;
+		int slot = mix(beatmapId) & mask;
+		while (keys[slot] != 0 && keys[slot] != beatmapId) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void put(int beatmapId, OsuApiBeatmap beatmap, long now) {
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+		int slot = find(beatmapId);
+		if (keys[slot] == 0) {
+			keys[slot] = beatmapId;
+			size++;
+		}
+		loadedAt[slot] = now;
+		exists[slot] = beatmap != null;
+		for (Attribute attribute : ATTRIBUTES) {
+			columns[attribute.ordinal()][slot] = nomodValue(attribute, beatmap);
+		}
+	}
+
+	private static double nomodValue(Attribute attribute, OsuApiBeatmap beatmap) {
+		return beatmap != null ? attribute.nomodValue.applyAsDouble(beatmap) : 0;
+	}
+
+	private void grow() {
+		rehash(keys.length * 2);
+	}
+
+	/**
+	 * Keeps only the given number of the most recently loaded beatmaps and
+	 * shrinks the table accordingly. The pinned beatmaps are kept on top of
+	 * that.
+	 *
+	 * @param pinned sorted
+	 */
+	private void evict(int retain, @BeatmapId int[] pinned) {
+		if (size <= retain) {
+			return;
+		}
+		long[] ages = new long[size];
+		int count = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0 && Arrays.binarySearch(pinned, keys[slot]) < 0) {
+				ages[count++] = loadedAt[slot];
+			}
+		}
+		int pinnedCount = size - count;
+		if (count <= retain) {
+			return;
+		}
+		Arrays.sort(ages, 0, count);
+		long threshold = retain > 0 ? ages[count - retain] : Long.MAX_VALUE;
+		// beatmaps from the same batch share their age
+		int keepAtThreshold = retain;
+		for (int i = count - 1; i >= 0 && ages[i] > threshold; i--) {
+			keepAtThreshold--;
+		}
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0 && Arrays.binarySearch(pinned, keys[slot]) < 0
+					&& (loadedAt[slot] < threshold || (loadedAt[slot] == threshold && keepAtThreshold-- <= 0))) {
+				// no need to keep the probe sequences intact, we rehash right away
+				keys[slot] = 0;
+			}
+		}
+		int capacity = MIN_CAPACITY;
+		while (capacity < (retain + pinnedCount) * 4) {
+			capacity *= 2;
+		}
+		rehash(capacity);
+	}
+
+	/**
+	 * Moves all beatmaps into a new table with the given capacity.
+	 */
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		long[] oldLoadedAt = loadedAt;
+		boolean[] oldExists = exists;
+		double[][] oldColumns = columns;
+
+		keys = new int[capacity];
+		loadedAt = new long[keys.length];
+		exists = new boolean[keys.length];
+		columns = new double[ATTRIBUTES.length][keys.length];
+		size = 0;
+
+		for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+			if (oldKeys[oldSlot] == 0) {
+				continue;
+			}
+			int slot = find(oldKeys[oldSlot]);
+			keys[slot] = oldKeys[oldSlot];
+			size++;
+			loadedAt[slot] = oldLoadedAt[oldSlot];
+			exists[slot] = oldExists[oldSlot];
+			for (int column = 0; column < columns.length; column++) {
+				columns[column][slot] = oldColumns[column][oldSlot];
+			}
+		}
+	}
+
+	private static int mix(int key) {
+		// beatmap ids are sequential; spread them over the table
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
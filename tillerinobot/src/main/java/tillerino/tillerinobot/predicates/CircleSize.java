@@ -3,6 +3,8 @@ package tillerino.tillerinobot.predicates;
 import lombok.EqualsAndHashCode;
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Attribute;
+
 @EqualsAndHashCode
 public class CircleSize implements NumericBeatmapProperty {
 
@@ -16,4 +18,9 @@ public class CircleSize implements NumericBeatmapProperty {
 		return beatmap.getCircleSize(mods);
 	}
 
+	@Override
+	public Attribute getIndexedAttribute() {
+		return Attribute.CS;
+	}
+
 }
@@ -2,6 +2,7 @@ package tillerino.tillerinobot.predicates;
 
 import lombok.Value;
 
+import java.util.BitSet;
 import java.util.Optional;
 
 import org.tillerino.osuApiModel.Mods;
@@ -22,6 +23,16 @@ public class ExcludeMod implements RecommendationPredicate {
 		return !mod.is(r.getMods());
 	}
 
+	@Override
+	public boolean testAll(BeatmapAttributeIndex.Snapshot attributes, int[] beatmapIds, long[] mods, BitSet rejected) {
+		for (int i = 0; i < mods.length; i++) {
+			if (mod.is(mods[i])) {
+				rejected.set(i);
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public boolean contradicts(RecommendationPredicate otherPredicate) {
 		return false;
@@ -2,9 +2,12 @@ package tillerino.tillerinobot.predicates;
 
 import java.util.Optional;
 
+import javax.annotation.CheckForNull;
+
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 import org.tillerino.osuApiModel.types.BitwiseMods;
 
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Attribute;
 import tillerino.tillerinobot.recommendations.RecommendationRequest;
 
 public interface NumericBeatmapProperty {
@@ -12,6 +15,16 @@ public interface NumericBeatmapProperty {
 
 	double getValue(OsuApiBeatmap beatmap, @BitwiseMods long mods);
 
+	/**
+	 * The attribute of {@link BeatmapAttributeIndex} which is equivalent to
+	 * {@link #getValue(OsuApiBeatmap, long)}.
+	 *
+	 * @return null if this property is not indexed
+	 */
+	default @CheckForNull Attribute getIndexedAttribute() {
+		return null;
+	}
+
 	/**
 	 * see
 	 * {@link RecommendationPredicate#findNonPredicateContradiction(RecommendationRequest)}
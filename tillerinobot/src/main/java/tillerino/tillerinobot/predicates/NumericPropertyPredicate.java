@@ -1,9 +1,11 @@
 package tillerino.tillerinobot.predicates;
 
 import lombok.Value;
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Attribute;
 import tillerino.tillerinobot.recommendations.BareRecommendation;
 import tillerino.tillerinobot.recommendations.RecommendationRequest;
 
+import java.util.BitSet;
 import java.util.Optional;
 
 import org.tillerino.osuApiModel.OsuApiBeatmap;
@@ -34,6 +36,21 @@ public class NumericPropertyPredicate<T extends NumericBeatmapProperty>
 		return value < max || includeMax;
 	}
 
+	@Override
+	public boolean testAll(BeatmapAttributeIndex.Snapshot attributes, int[] beatmapIds, long[] mods, BitSet rejected) {
+		Attribute attribute = property.getIndexedAttribute();
+		if (attribute == null) {
+			return false;
+		}
+		attributes.rejectOutside(beatmapIds, mods, attribute, min, includeMin, max, includeMax, rejected);
+		return true;
+	}
+
+	@Override
+	public boolean usesIndex() {
+		return property.getIndexedAttribute() != null;
+	}
+
 	@Override
 	public boolean contradicts(RecommendationPredicate otherPredicate) {
 		if (otherPredicate instanceof NumericPropertyPredicate<?>) {
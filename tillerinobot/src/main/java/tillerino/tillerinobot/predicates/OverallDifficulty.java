@@ -4,6 +4,8 @@ import lombok.EqualsAndHashCode;
 
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Attribute;
+
 @EqualsAndHashCode
 public class OverallDifficulty implements NumericBeatmapProperty {
 
@@ -17,4 +19,9 @@ public class OverallDifficulty implements NumericBeatmapProperty {
 		return beatmap.getOverallDifficulty(mods);
 	}
 
+	@Override
+	public Attribute getIndexedAttribute() {
+		return Attribute.OD;
+	}
+
 }
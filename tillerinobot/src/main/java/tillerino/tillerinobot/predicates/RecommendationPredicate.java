@@ -1,8 +1,11 @@
 package tillerino.tillerinobot.predicates;
 
+import java.util.BitSet;
 import java.util.Optional;
 
 import org.tillerino.osuApiModel.OsuApiBeatmap;
+import org.tillerino.osuApiModel.types.BeatmapId;
+import org.tillerino.osuApiModel.types.BitwiseMods;
 
 import tillerino.tillerinobot.recommendations.BareRecommendation;
 import tillerino.tillerinobot.recommendations.RecommendationRequest;
@@ -10,6 +13,35 @@ import tillerino.tillerinobot.recommendations.RecommendationRequest;
 public interface RecommendationPredicate {
 	boolean test(BareRecommendation r, OsuApiBeatmap beatmap);
 
+	/**
+	 * Tests this predicate for many recommendations at once without loading
+	 * the beatmaps.
+	 *
+	 * @param attributes contains all given beatmaps; null unless one of the
+	 *        predicates {@link #usesIndex()}
+	 * @param beatmapIds beatmap ids of the recommendations
+	 * @param mods mods of the recommendations, aligned with beatmapIds
+	 * @param rejected bit i is set if recommendation i does not satisfy this
+	 *        predicate
+	 * @return false if this predicate can only be tested with
+	 *         {@link #test(BareRecommendation, OsuApiBeatmap)}. Nothing is
+	 *         rejected in this case.
+	 */
+	default boolean testAll(BeatmapAttributeIndex.Snapshot attributes, @BeatmapId int[] beatmapIds, @BitwiseMods long[] mods,
+			BitSet rejected) {
+		return false;
+	}
+
+	/**
+	 * @return true if
+	 *         {@link #testAll(BeatmapAttributeIndex.Snapshot, int[], long[], BitSet)}
+	 *         reads beatmap attributes from the index. The index is only filled
+	 *         if one of the predicates needs it.
+	 */
+	default boolean usesIndex() {
+		return false;
+	}
+
 	/**
 	 * Checks if this predicate contradicts the given predicate.
 	 */
@@ -6,6 +6,7 @@ import org.tillerino.osuApiModel.Mods;
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 
 import lombok.EqualsAndHashCode;
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Attribute;
 import tillerino.tillerinobot.recommendations.RecommendationRequest;
 
 @EqualsAndHashCode
@@ -20,6 +21,11 @@ public class StarDiff implements NumericBeatmapProperty {
         return beatmap.getStarDifficulty();
     }
 
+    @Override
+    public Attribute getIndexedAttribute() {
+        return Attribute.STARS;
+    }
+
     @Override
     public Optional<String> findNonPredicateContradiction(RecommendationRequest request, NumericPropertyPredicate<?> value) {
         if (request.getRequestedMods() != 0L) {
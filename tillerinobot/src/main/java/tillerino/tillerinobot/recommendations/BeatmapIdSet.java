@@ -0,0 +1,233 @@
+package tillerino.tillerinobot.recommendations;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.tillerino.osuApiModel.types.BeatmapId;
+
+/**
+ * Compact set of beatmap ids, used to exclude previously given
+ * recommendations. Like a roaring bitmap, the ids are split into blocks by
+ * their upper 16 bits and each block keeps the lower 16 bits of its ids in a
+ * sorted {@code char[]}. This takes about two bytes per id instead of a boxed
+ * {@link Integer} plus a list slot, and {@link #contains(int)} is two binary
+ * searches instead of a list scan.
+ *
+ * <p>
+ * The sets which we keep per user hold a few thousand ids at most, which is
+ * far from the density where a block would be better stored as a bitmap, so
+ * there are only array blocks.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public class BeatmapIdSet {
+	private char[] keys = new char[0];
+	private char[][] blocks = new char[0][];
+	private int[] blockSizes = new int[0];
+	private int blockCount = 0;
+	private int size = 0;
+
+	public BeatmapIdSet() {
+	}
+
+	public BeatmapIdSet(Collection<Integer> beatmapIds) {
+		beatmapIds.forEach(this::add);
+	}
+
+	/**
+	 * @return true if the id was not in the set before
+	 */
+	public synchronized boolean add(@BeatmapId int beatmapId) {
+		char key = (char) (beatmapId >>> 16);
+		char low = (char) beatmapId;
+		int block = Arrays.binarySearch(keys, 0, blockCount, key);
+		if (block < 0) {
+			block = -block - 1;
+			insertBlock(block, key);
+		}
+		int index = Arrays.binarySearch(blocks[block], 0, blockSizes[block], low);
+		if (index >= 0) {
+			return false;
+		}
+		index = -index - 1;
+		char[] values = blocks[block];
+		int blockSize = blockSizes[block];
+		if (blockSize == values.length) {
+			values = blocks[block] = Arrays.copyOf(values, Math.max(4, blockSize * 2));
+		}
+		System.arraycopy(values, index, values, index + 1, blockSize - index);
+		values[index] = low;
+		blockSizes[block]++;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return true if the id was in the set
+	 */
+	public synchronized boolean remove(@BeatmapId int beatmapId) {
+		int block = Arrays.binarySearch(keys, 0, blockCount, (char) (beatmapId >>> 16));
+		if (block < 0) {
+			return false;
+		}
+		char[] values = blocks[block];
+		int blockSize = blockSizes[block];
+		int index = Arrays.binarySearch(values, 0, blockSize, (char) beatmapId);
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(values, index + 1, values, index, blockSize - index - 1);
+		size--;
+		if (--blockSizes[block] == 0) {
+			removeBlock(block);
+		}
+		return true;
+	}
+
+	public synchronized boolean contains(@BeatmapId int beatmapId) {
+		int block = Arrays.binarySearch(keys, 0, blockCount, (char) (beatmapId >>> 16));
+		return block >= 0 && Arrays.binarySearch(blocks[block], 0, blockSizes[block], (char) beatmapId) >= 0;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	public synchronized void clear() {
+		keys = new char[0];
+		blocks = new char[0][];
+		blockSizes = new int[0];
+		blockCount = 0;
+		size = 0;
+	}
+
+	/**
+	 * @return a rough estimate of the heap space occupied by this set
+	 */
+	public synchronized long estimatedBytes() {
+		long bytes = 64 + (2L + 8 + 4) * keys.length;
+		for (int block = 0; block < blockCount; block++) {
+			bytes += 16 + 2L * blocks[block].length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return an independent copy of this set
+	 */
+	public synchronized BeatmapIdSet copy() {
+		BeatmapIdSet copy = new BeatmapIdSet();
+		copy.keys = Arrays.copyOf(keys, blockCount);
+		copy.blocks = new char[blockCount][];
+		for (int block = 0; block < blockCount; block++) {
+			copy.blocks[block] = Arrays.copyOf(blocks[block], blockSizes[block]);
+		}
+		copy.blockSizes = Arrays.copyOf(blockSizes, blockCount);
+		copy.blockCount = blockCount;
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * @return all ids in ascending order
+	 */
+	public synchronized int[] toArray() {
+		int[] array = new int[size];
+		int i = 0;
+		for (int block = 0; block < blockCount; block++) {
+			int high = keys[block] << 16;
+			char[] values = blocks[block];
+			for (int j = 0; j < blockSizes[block]; j++) {
+				array[i++] = high | values[j];
+			}
+		}
+		return array;
+	}
+
+	/**
+	 * A read-only view for APIs which take a collection of ids.
+	 * {@link Collection#contains(Object)} probes this set, iterating works on
+	 * a snapshot.
+	 */
+	public Collection<Integer> asCollection() {
+		return new AbstractSet<Integer>() {
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof Integer && BeatmapIdSet.this.contains((Integer) o);
+			}
+
+			@Override
+			public int size() {
+				return BeatmapIdSet.this.size();
+			}
+
+			@Override
+			public Iterator<Integer> iterator() {
+				int[] snapshot = BeatmapIdSet.this.toArray();
+				return new Iterator<Integer>() {
+					int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < snapshot.length;
+					}
+
+					@Override
+					public Integer next() {
+						if (next >= snapshot.length) {
+							throw new NoSuchElementException();
+						}
+						return snapshot[next++];
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof BeatmapIdSet && Arrays.equals(toArray(), ((BeatmapIdSet) obj).toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private void insertBlock(int block, char key) {
+		if (blockCount == keys.length) {
+			int capacity = Math.max(4, blockCount * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			blocks = Arrays.copyOf(blocks, capacity);
+			blockSizes = Arrays.copyOf(blockSizes, capacity);
+		}
+		System.arraycopy(keys, block, keys, block + 1, blockCount - block);
+		System.arraycopy(blocks, block, blocks, block + 1, blockCount - block);
+		System.arraycopy(blockSizes, block, blockSizes, block + 1, blockCount - block);
+		keys[block] = key;
+		blocks[block] = new char[0];
+		blockSizes[block] = 0;
+		blockCount++;
+	}
+
+	private void removeBlock(int block) {
+		System.arraycopy(keys, block + 1, keys, block, blockCount - block - 1);
+		System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+		System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+		blockCount--;
+		blocks[blockCount] = null;
+	}
+}
@@ -0,0 +1,90 @@
+package tillerino.tillerinobot.recommendations;
+
+import java.util.Collection;
+
+import javax.annotation.CheckForNull;
+
+import org.tillerino.osuApiModel.types.BeatmapId;
+import org.tillerino.osuApiModel.types.BitwiseMods;
+
+import lombok.Value;
+
+/**
+ * Columnar storage of {@link BareRecommendation}s for {@link Sampler}. Instead
+ * of keeping one object per recommendation, every property is kept in a
+ * primitive array. A {@link BareRecommendation} object is only created when an
+ * element is actually sampled.
+ */
+public class CompactRecommendations implements Sampler.Population<BareRecommendation> {
+	private static final short NO_PERSONAL_PP = -1;
+
+	private final int[] beatmapIds;
+	private final long[] mods;
+	private final float[] probabilities;
+	private final short[] personalPp;
+	/**
+	 * The causes are only used for logging complaints. They are usually empty
+	 * or very short, so we just keep references to the original arrays.
+	 */
+	private final long[][] causes;
+
+	public CompactRecommendations(Collection<BareRecommendation> recommendations) {
+		int size = recommendations.size();
+		beatmapIds = new int[size];
+		mods = new long[size];
+		probabilities = new float[size];
+		personalPp = new short[size];
+		causes = new long[size][];
+
+		int i = 0;
+		for (BareRecommendation recommendation : recommendations) {
+			beatmapIds[i] = recommendation.getBeatmapId();
+			mods[i] = recommendation.getMods();
+			probabilities[i] = (float) recommendation.getProbability();
+			Integer pp = recommendation.getPersonalPP();
+			personalPp[i] = pp == null ? NO_PERSONAL_PP : (short) Math.max(0, Math.min(Short.MAX_VALUE, pp));
+			causes[i] = recommendation.getCauses();
+			i++;
+		}
+	}
+
+	@Override
+	public int size() {
+		return beatmapIds.length;
+	}
+
+	@Override
+	public BareRecommendation get(int index) {
+		short pp = personalPp[index];
+		return new CompactRecommendation(beatmapIds[index], mods[index], causes[index],
+				pp == NO_PERSONAL_PP ? null : (int) pp, probabilities[index]);
+	}
+
+	@Override
+	public double getProbability(int index) {
+		return probabilities[index];
+	}
+
+	@Override
+	public long estimatedBytes() {
+		long bytes = (4L + 8 + 4 + 2 + 8) * beatmapIds.length;
+		for (long[] c : causes) {
+			if (c != null) {
+				bytes += 16 + 8L * c.length;
+			}
+		}
+		return bytes;
+	}
+
+	@Value
+	static class CompactRecommendation implements BareRecommendation {
+		@BeatmapId
+		int beatmapId;
+		@BitwiseMods
+		long mods;
+		long[] causes;
+		@CheckForNull
+		Integer personalPP;
+		double probability;
+	}
+}
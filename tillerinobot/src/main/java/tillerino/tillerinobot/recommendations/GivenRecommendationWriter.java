@@ -0,0 +1,266 @@
+package tillerino.tillerinobot.recommendations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.tillerino.osuApiModel.types.UserId;
+import org.tillerino.ppaddict.util.ShutdownHook;
+import org.tillerino.ppaddict.util.TidyObject;
+
+import com.google.common.collect.Iterables;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import tillerino.tillerinobot.data.GivenRecommendation;
+import tillerino.tillerinobot.data.repos.GivenRecommendationRepository;
+import tillerino.tillerinobot.data.util.ThreadLocalAutoCommittingEntityManager;
+
+/**
+ * Write-behind queue for {@link GivenRecommendation}s. Recommendations are
+ * queued and written in batches of up to {@value #MAX_BATCH_SIZE}, one
+ * transaction per batch, at least every {@value #FLUSH_INTERVAL_MILLIS}ms and
+ * when the JVM shuts down. This takes the commit off the path of every
+ * recommendation.
+ *
+ * <p>
+ * Until they are flushed, queued recommendations are only in memory, so
+ * anything reading given recommendations from the database needs to add
+ * {@link #getPending(int)} or call {@link #flush(int)} first. The same goes
+ * for updating them.
+ *
+ * <p>
+ * If a batch can't be written, its recommendations are written one by one.
+ * Those which still fail go back into the queue, and after
+ * {@value #MAX_ATTEMPTS} failed attempts they are logged and dropped, so that
+ * a single bad row can't block the queue.
+ */
+@Slf4j
+@Singleton
+public class GivenRecommendationWriter implements TidyObject {
+	static final int MAX_BATCH_SIZE = 100;
+
+	static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+	static final int MAX_ATTEMPTS = 5;
+
+	@RequiredArgsConstructor
+	private static class Pending {
+		final GivenRecommendation recommendation;
+
+		int failures = 0;
+
+		RuntimeException lastError;
+	}
+
+	private final GivenRecommendationRepository recommendationsRepo;
+
+	private final ThreadLocalAutoCommittingEntityManager em;
+
+	private final EntityManagerFactory emf;
+
+	private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+
+	/**
+	 * The batch which is currently being written. Guarded by {@link #pending},
+	 * so that {@link #getPending(int)} sees each recommendation either here,
+	 * in the queue or in the database.
+	 */
+	private List<Pending> writing = Collections.emptyList();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread thread = new Thread(r, "GivenRecommendationWriter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private final ShutdownHook shutdownHook = new ShutdownHook(this);
+
+	@Inject
+	public GivenRecommendationWriter(GivenRecommendationRepository recommendationsRepo,
+			ThreadLocalAutoCommittingEntityManager em, EntityManagerFactory emf) {
+		this.recommendationsRepo = recommendationsRepo;
+		this.em = em;
+		this.emf = emf;
+	}
+
+	/**
+	 * Queues the given recommendation for writing.
+	 */
+	public void save(GivenRecommendation recommendation) {
+		if (started.compareAndSet(false, true)) {
+			// the thread is only started once there is something to write
+			exec.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+					TimeUnit.MILLISECONDS);
+			shutdownHook.add();
+		}
+		pending.add(new Pending(recommendation));
+		if (pending.size() == MAX_BATCH_SIZE && !exec.isShutdown()) {
+			exec.execute(this::flushQuietly);
+		}
+	}
+
+	/**
+	 * Writes all queued recommendations. Can be called from any thread.
+	 * Recommendations which fail are not retried in the same call.
+	 */
+	public synchronized void flush() {
+		flush(recommendation -> true);
+	}
+
+	/**
+	 * Writes the queued recommendations of a single user. Call this before
+	 * updating the user's given recommendations in the database.
+	 *
+	 * @throws IllegalStateException if some of the user's recommendations
+	 *         could not be written and went back into the queue. They would
+	 *         be written after the update and not be affected by it.
+	 */
+	public synchronized void flush(@UserId int userid) {
+		List<Pending> failed = flush(recommendation -> recommendation.getUserid() == userid);
+		if (!failed.isEmpty()) {
+			throw new IllegalStateException(String.format("%s given recommendations of user %s could not be written",
+					failed.size(), userid), failed.get(0).lastError);
+		}
+	}
+
+	/**
+	 * @return the recommendations of the given user which have not been written
+	 *         yet, in the order in which they were saved
+	 */
+	public List<GivenRecommendation> getPending(@UserId int userid) {
+		List<GivenRecommendation> recommendations = new ArrayList<>();
+		synchronized (pending) {
+			for (Pending p : Iterables.concat(writing, pending)) {
+				if (p.recommendation.getUserid() == userid) {
+					recommendations.add(p.recommendation);
+				}
+			}
+		}
+		return recommendations;
+	}
+
+	/**
+	 * @return the recommendations which failed and went back into the queue
+	 */
+	private List<Pending> flush(Predicate<GivenRecommendation> filter) {
+		// failed recommendations go back to the end of the queue
+		List<Pending> requeued = new ArrayList<>();
+		int remaining;
+		synchronized (pending) {
+			remaining = (int) pending.stream().filter(p -> filter.test(p.recommendation)).count();
+		}
+		while (remaining > 0) {
+			List<Pending> batch = new ArrayList<>();
+			synchronized (pending) {
+				for (Iterator<Pending> iterator = pending.iterator(); iterator.hasNext()
+						&& batch.size() < Math.min(remaining, MAX_BATCH_SIZE);) {
+					Pending p = iterator.next();
+					if (filter.test(p.recommendation)) {
+						iterator.remove();
+						batch.add(p);
+					}
+				}
+				writing = batch;
+			}
+			if (batch.isEmpty()) {
+				break;
+			}
+			remaining -= batch.size();
+			List<Pending> failed = new ArrayList<>();
+			try {
+				write(batch);
+			} catch (RuntimeException e) {
+				if (batch.size() == 1) {
+					failed(batch.get(0), e, failed);
+				} else {
+					log.warn("Error writing given recommendations, writing them one by one", e);
+					for (Pending p : batch) {
+						try {
+							write(Collections.singletonList(p));
+						} catch (RuntimeException e1) {
+							failed(p, e1, failed);
+						}
+					}
+				}
+			} finally {
+				synchronized (pending) {
+					pending.addAll(failed);
+					writing = Collections.emptyList();
+				}
+				requeued.addAll(failed);
+			}
+		}
+		return requeued;
+	}
+
+	private void failed(Pending p, RuntimeException e, List<Pending> retry) {
+		p.lastError = e;
+		if (++p.failures < MAX_ATTEMPTS) {
+			log.warn("Error writing given recommendation {}", p.recommendation, e);
+			retry.add(p);
+		} else {
+			log.error("Dropping given recommendation {} after {} attempts", p.recommendation, p.failures, e);
+			dropped.incrementAndGet();
+		}
+	}
+
+	private void write(List<Pending> batch) {
+		EntityManager oldEm = em.setThreadLocalEntityManager(emf.createEntityManager());
+		try {
+			em.ensureTransaction(() -> {
+				recommendationsRepo.saveAll(batch.stream().map(p -> p.recommendation).collect(Collectors.toList()));
+			});
+		} finally {
+			em.closeAndReplace(oldEm);
+		}
+	}
+
+	/**
+	 * @return the number of recommendations which were dropped because they
+	 *         could not be written
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of recommendations which have not been written yet
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			log.error("Error writing given recommendations", e);
+		}
+	}
+
+	@Override
+	public void tidyUp(boolean fromShutdownHook) {
+		exec.shutdown();
+		flushQuietly();
+		shutdownHook.remove(fromShutdownHook);
+	}
+}
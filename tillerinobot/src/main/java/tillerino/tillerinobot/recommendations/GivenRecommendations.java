@@ -0,0 +1,113 @@
+package tillerino.tillerinobot.recommendations;
+
+import java.util.Arrays;
+
+import org.tillerino.osuApiModel.types.BeatmapId;
+import org.tillerino.osuApiModel.types.BitwiseMods;
+import org.tillerino.osuApiModel.types.MillisSinceEpoch;
+import org.tillerino.osuApiModel.types.UserId;
+
+import lombok.Getter;
+import tillerino.tillerinobot.data.GivenRecommendation;
+
+/**
+ * The recent recommendations of a single user, stored in primitive columns
+ * instead of {@link GivenRecommendation} entities. The beatmap ids are
+ * additionally kept in a {@link BeatmapIdSet} for exclusion.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public class GivenRecommendations {
+	@Getter
+	@UserId
+	private final int userId;
+
+	private int[] beatmapIds = new int[0];
+	private long[] dates = new long[0];
+	private long[] mods = new long[0];
+	private int size = 0;
+
+	private final BeatmapIdSet exclusions = new BeatmapIdSet();
+
+	public GivenRecommendations(@UserId int userId) {
+		this.userId = userId;
+	}
+
+	/**
+	 * Appends a recommendation. Recommendations are expected to be added from
+	 * oldest to newest.
+	 */
+	public synchronized void add(@BeatmapId int beatmapId, @MillisSinceEpoch long date, @BitwiseMods long mods) {
+		if (size == beatmapIds.length) {
+			int capacity = Math.max(8, size + (size >> 1));
+			beatmapIds = Arrays.copyOf(beatmapIds, capacity);
+			dates = Arrays.copyOf(dates, capacity);
+			this.mods = Arrays.copyOf(this.mods, capacity);
+		}
+		beatmapIds[size] = beatmapId;
+		dates[size] = date;
+		this.mods[size] = mods;
+		size++;
+		exclusions.add(beatmapId);
+	}
+
+	public synchronized void clear() {
+		beatmapIds = new int[0];
+		dates = new long[0];
+		mods = new long[0];
+		size = 0;
+		exclusions.clear();
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param index 0 is the oldest recommendation
+	 */
+	@BeatmapId
+	public synchronized int getBeatmapId(int index) {
+		checkIndex(index);
+		return beatmapIds[index];
+	}
+
+	/**
+	 * @param index 0 is the oldest recommendation
+	 */
+	@MillisSinceEpoch
+	public synchronized long getDate(int index) {
+		checkIndex(index);
+		return dates[index];
+	}
+
+	/**
+	 * @param index 0 is the oldest recommendation
+	 */
+	@BitwiseMods
+	public synchronized long getMods(int index) {
+		checkIndex(index);
+		return mods[index];
+	}
+
+	/**
+	 * @return a snapshot of the beatmap ids of all recommendations
+	 */
+	public synchronized BeatmapIdSet getExclusions() {
+		return exclusions.copy();
+	}
+
+	/**
+	 * @return a rough estimate of the heap space occupied by this object
+	 */
+	public synchronized long estimatedBytes() {
+		return 64 + (4L + 8 + 8) * beatmapIds.length + exclusions.estimatedBytes();
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(index + " of " + size);
+		}
+	}
+}
@@ -5,12 +5,20 @@ import static org.apache.commons.lang3.StringUtils.getLevenshteinDistance;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import org.tillerino.osuApiModel.Mods;
 import org.tillerino.osuApiModel.OsuApiUser;
+import org.tillerino.osuApiModel.types.UserId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import lombok.RequiredArgsConstructor;
 import tillerino.tillerinobot.BotBackend;
@@ -20,6 +28,7 @@ import tillerino.tillerinobot.predicates.PredicateParser;
 import tillerino.tillerinobot.predicates.RecommendationPredicate;
 import tillerino.tillerinobot.recommendations.RecommendationRequest.RecommendationRequestBuilder;
 
+@Singleton
 @RequiredArgsConstructor(onConstructor = @__(@Inject))
 public class RecommendationRequestParser {
 	private static final String STANDARD_SYNTAX = "[nomod] [relax|beta|gamma] [dt] [hr] [hd]";
@@ -28,6 +37,35 @@ public class RecommendationRequestParser {
 	
 	PredicateParser parser = new PredicateParser();
 
+	/**
+	 * Successfully parsed requests by normalized message, shared between users.
+	 * Only predicates depend on the donator status, so requests with predicates
+	 * are only taken from the cache for donators. Failed parses are not cached
+	 * since their error messages depend on the user's language.
+	 */
+	private final Cache<String, RecommendationRequest> parsed = CacheBuilder.newBuilder()
+			.maximumSize(1000)
+			.build();
+
+	/**
+	 * Donator status by user id. Changes through the bot are invalidated
+	 * explicitly through {@link #invalidateDonator(int)}; the expiry covers
+	 * changes made elsewhere.
+	 */
+	private final Cache<Integer, Boolean> donators = CacheBuilder.newBuilder()
+			.expireAfterWrite(10, TimeUnit.MINUTES)
+			.maximumSize(10000)
+			.build();
+
+	private final AtomicLong parseHits = new AtomicLong();
+
+	private final AtomicLong parseMisses = new AtomicLong();
+
+	/**
+	 * Total time spent parsing messages which were not cached.
+	 */
+	private final AtomicLong parseNanos = new AtomicLong();
+
 	/**
 	 * Parses a recommendation request string.
 	 *
@@ -37,7 +75,84 @@ public class RecommendationRequestParser {
 	 */
 	public RecommendationRequest parseSamplerSettings(OsuApiUser apiUser, @Nonnull String message,
 			Language lang) throws UserException, SQLException, IOException {
+		String normalized = normalize(message);
+		RecommendationRequest cached = parsed.getIfPresent(normalized);
+		if (cached != null && (cached.getPredicates().isEmpty() || isDonator(apiUser))) {
+			parseHits.incrementAndGet();
+			return cached;
+		}
+		parseMisses.incrementAndGet();
+
+		long start = System.nanoTime();
+		try {
+			RecommendationRequest request = parse(normalized, apiUser, lang);
+			parsed.put(normalized, request);
+			return request;
+		} finally {
+			parseNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Forgets the cached donator status of the given user. Call this when the
+	 * donator status changes.
+	 */
+	public void invalidateDonator(@UserId int userId) {
+		donators.invalidate(userId);
+	}
+
+	/**
+	 * @return the number of requests which were answered from the cache
+	 */
+	public long getParseCacheHits() {
+		return parseHits.get();
+	}
+
+	/**
+	 * @return the number of requests which had to be parsed
+	 */
+	public long getParseCacheMisses() {
+		return parseMisses.get();
+	}
+
+	/**
+	 * @return the total time spent parsing requests which were not cached in
+	 *         nanoseconds
+	 */
+	public long getParseNanos() {
+		return parseNanos.get();
+	}
+
+	/**
+	 * @param apiUser null if unknown, in which case the user is not a donator
+	 */
+	private boolean isDonator(@CheckForNull OsuApiUser apiUser) throws SQLException, IOException {
+		if (apiUser == null) {
+			return false;
+		}
+		int userId = apiUser.getUserId();
+		Boolean cached = donators.getIfPresent(userId);
+		if (cached != null) {
+			return cached;
+		}
+		boolean donator = backend.getDonator(userId) > 0;
+		donators.put(userId, donator);
+		return donator;
+	}
+
+	/**
+	 * Splits the message into tokens and joins them with single spaces, so
+	 * that messages which only differ in whitespace share a cache entry.
+	 */
+	static String normalize(String message) {
+		return String.join(" ", message.trim().split("\\s+"));
+	}
+
+	private RecommendationRequest parse(String message, @CheckForNull OsuApiUser apiUser, Language lang)
+			throws UserException, SQLException, IOException {
 		String[] remaining = message.split(" ");
+		// only looked up if there is a token which may be a predicate
+		Boolean donator = null;
 		
 		RecommendationRequestBuilder settingsBuilder = RecommendationRequest.builder();
 		
@@ -47,9 +162,13 @@ public class RecommendationRequestParser {
 			String param = remaining[i];
 			if(param.length() == 0)
 				continue;
-			if (!parseEngines(param, settingsBuilder, apiUser)
-					&& !parseMods(param, settingsBuilder)
-					&& !parsePredicates(param, settingsBuilder, apiUser, lang)) {
+			if (parseEngines(param, settingsBuilder) || parseMods(param, settingsBuilder)) {
+				continue;
+			}
+			if (donator == null) {
+				donator = isDonator(apiUser);
+			}
+			if (!parsePredicates(param, settingsBuilder, donator, lang)) {
 				throw new UserException(lang.invalidChoice(param, STANDARD_SYNTAX));
 			}
 		}
@@ -73,8 +192,7 @@ public class RecommendationRequestParser {
 		return request;
 	}
 
-	private boolean parseEngines(String param, RecommendationRequestBuilder settingsBuilder,
-			OsuApiUser user) throws SQLException, IOException {
+	private boolean parseEngines(String param, RecommendationRequestBuilder settingsBuilder) {
 		String lowerCase = param.toLowerCase();
 		if(getLevenshteinDistance(lowerCase, "relax") <= 2) {
 			settingsBuilder.model(Model.ALPHA);
@@ -116,9 +234,9 @@ public class RecommendationRequestParser {
 		return false;
 	}
 
-	private boolean parsePredicates(String param, RecommendationRequestBuilder settingsBuilder, OsuApiUser apiUser,
-			Language lang) throws SQLException, IOException, UserException {
-		if (backend.getDonator(apiUser.getUserId()) > 0) {
+	private boolean parsePredicates(String param, RecommendationRequestBuilder settingsBuilder, boolean donator,
+			Language lang) throws UserException {
+		if (donator) {
 			RecommendationPredicate predicate = parser.tryParse(param, lang);
 			if (predicate != null) {
 				for (RecommendationPredicate existingPredicate : settingsBuilder.getPredicates()) {
@@ -3,39 +3,59 @@ package tillerino.tillerinobot.recommendations;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 import org.tillerino.osuApiModel.OsuApiUser;
 import org.tillerino.osuApiModel.types.BeatmapId;
 import org.tillerino.osuApiModel.types.BitwiseMods;
 import org.tillerino.osuApiModel.types.UserId;
+import org.tillerino.ppaddict.util.ShutdownHook;
+import org.tillerino.ppaddict.util.TidyObject;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import tillerino.tillerinobot.BeatmapMeta;
 import tillerino.tillerinobot.BotBackend;
 import tillerino.tillerinobot.BotBackend.BeatmapsLoader;
+import tillerino.tillerinobot.RateLimiter;
 import tillerino.tillerinobot.UserException;
 import tillerino.tillerinobot.UserException.RareUserException;
 import tillerino.tillerinobot.data.GivenRecommendation;
 import tillerino.tillerinobot.data.repos.GivenRecommendationRepository;
 import tillerino.tillerinobot.data.util.ThreadLocalAutoCommittingEntityManager;
 import tillerino.tillerinobot.lang.Language;
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex;
 import tillerino.tillerinobot.predicates.RecommendationPredicate;
 
 /**
@@ -43,35 +63,144 @@ import tillerino.tillerinobot.predicates.RecommendationPredicate;
  * 
  * @author Tillerino
  */
+@Slf4j
 @Singleton
 @RequiredArgsConstructor(onConstructor = @__(@Inject))
-public class RecommendationsManager {
+public class RecommendationsManager implements TidyObject {
 	private final BotBackend backend;
 	
 	private final GivenRecommendationRepository recommendationsRepo;
 	
 	private final ThreadLocalAutoCommittingEntityManager em;
 
+	private final EntityManagerFactory emf;
+
+	@Getter
 	private final RecommendationRequestParser parser;
 
 	private final BeatmapsLoader beatmapsLoader;
 
+	private final RateLimiter rateLimiter;
+
+	private final GivenRecommendationWriter givenRecommendationWriter;
+
+	/**
+	 * Numeric beatmap attributes for checking predicates. Filled on demand.
+	 */
+	private final BeatmapAttributeIndex beatmapAttributes = new BeatmapAttributeIndex();
+
 	private final Cache<Integer, Recommendation> lastRecommendation = CacheBuilder.newBuilder()
 			.expireAfterWrite(1, TimeUnit.HOURS)
 			.build();
 
-	private final LoadingCache<Integer, List<GivenRecommendation>> givenRecomendations = CacheBuilder.newBuilder()
+	/**
+	 * Budget for {@link #givenRecomendations}. A user with a thousand
+	 * recommendations in the last four weeks takes about 25KB.
+	 */
+	static final long GIVEN_RECOMMENDATIONS_MAX_BYTES = 32L << 20;
+
+	/**
+	 * The cache is bounded by the estimated size of its entries. Entries are
+	 * weighed again whenever a recommendation is added, see
+	 * {@link #getRecommendation(OsuApiUser, String, Language)}.
+	 */
+	private final LoadingCache<Integer, GivenRecommendations> givenRecomendations = CacheBuilder.newBuilder()
 			.expireAfterAccess(1, TimeUnit.HOURS)
+			.maximumWeight(GIVEN_RECOMMENDATIONS_MAX_BYTES)
+			.weigher((Integer user, GivenRecommendations given)
+					-> (int) Math.min(Integer.MAX_VALUE, given.estimatedBytes()))
 			.build(CacheLoader.from(this::doLoadGivenRecommendations));
 	
 	/**
-	 * These take long to calculate, so we want to keep them for a bit, but they also take a lot of space. 100 should be a good balance.
+	 * Only keep this many of the most probable recommendations to save some
+	 * memory.
+	 */
+	static final int MAX_SAMPLER_SIZE = 1000;
+
+	/**
+	 * See {@link #getTopRecommendationsLoadingBeatmaps(Collection, BitSet, List)}.
+	 */
+	static final int MIN_BEATMAP_BATCH = 50;
+
+	private static final Comparator<BareRecommendation> BY_PROBABILITY = Comparator
+			.comparingDouble(BareRecommendation::getProbability);
+
+	/**
+	 * Budget for {@link #samplers}. A full sampler of 1000 recommendations
+	 * takes about 40KB, so this fits well over a thousand samplers.
 	 */
-	private final Cache<Integer, Sampler<BareRecommendation, RecommendationRequest>> samplers = CacheBuilder.newBuilder()
+	static final long SAMPLERS_MAX_BYTES = 64L << 20;
+
+	/**
+	 * These take long to calculate, so we want to keep them for a bit, but they
+	 * also take a lot of space. They are stored in {@link CompactRecommendations}
+	 * and the cache is bounded by their estimated size.
+	 */
+	final Cache<Integer, Sampler<BareRecommendation, RecommendationRequest>> samplers = CacheBuilder.newBuilder()
 			.expireAfterWrite(1, TimeUnit.HOURS)
-			.maximumSize(100)
+			.maximumWeight(SAMPLERS_MAX_BYTES)
+			.weigher((Integer user, Sampler<BareRecommendation, RecommendationRequest> sampler)
+					-> (int) Math.min(Integer.MAX_VALUE, sampler.estimatedBytes()))
 			.build();
 
+	/**
+	 * Counts requests which could reuse the cached sampler.
+	 */
+	private final AtomicLong samplerHits = new AtomicLong();
+
+	/**
+	 * Counts requests which required loading a new sampler from the backend.
+	 */
+	private final AtomicLong samplerMisses = new AtomicLong();
+
+	/**
+	 * A sampler which was cut down to {@value #MAX_SAMPLER_SIZE} is refilled in
+	 * the background once it has fewer remaining recommendations than this.
+	 */
+	static final int REFILL_THRESHOLD = MAX_SAMPLER_SIZE / 10;
+
+	/**
+	 * Samplers are refilled in the background after this time, so that active
+	 * users don't run into the expiry of {@link #samplers}.
+	 */
+	static final long REFILL_AFTER = TimeUnit.MINUTES.toMillis(45);
+
+	/**
+	 * Refills samplers in the background. A single low-priority thread with a
+	 * bounded queue: if it can't keep up, refills are dropped and the next
+	 * request loads its sampler interactively like before. Shut down in
+	 * {@link #tidyUp(boolean)}.
+	 */
+	final ThreadPoolExecutor refillExecutor = createRefillExecutor();
+
+	private final AtomicBoolean refilling = new AtomicBoolean();
+
+	private final ShutdownHook shutdownHook = new ShutdownHook(this);
+
+	private static ThreadPoolExecutor createRefillExecutor() {
+		ThreadPoolExecutor tpe = new ThreadPoolExecutor(1, 1,
+				5L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(100),
+				r -> {
+					Thread thread = new Thread(r, "SamplerRefill");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				});
+		tpe.allowCoreThreadTimeOut(true);
+		return tpe;
+	}
+
+	/**
+	 * Users whose sampler is currently queued for a refill.
+	 */
+	private final Set<Integer> pendingRefills = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Counts samplers which were replaced by a background refill.
+	 */
+	private final AtomicLong samplerRefills = new AtomicLong();
+
 	@CheckForNull
 	public Recommendation getLastRecommendation(Integer userid) {
 		return lastRecommendation.getIfPresent(userid);
@@ -98,7 +227,8 @@ public class RecommendationsManager {
 		 * load sampler
 		 */
 
-		Sampler<BareRecommendation, RecommendationRequest> sampler = samplers.getIfPresent(userid);
+		Sampler<BareRecommendation, RecommendationRequest> cached = samplers.getIfPresent(userid);
+		Sampler<BareRecommendation, RecommendationRequest> sampler = cached;
 
 		if (sampler == null || message != null) {
 			/*
@@ -108,22 +238,12 @@ public class RecommendationsManager {
 			RecommendationRequest settings = parseSamplerSettings(apiUser, message == null ? "" : message, lang);
 
 			if (sampler == null || !sampler.getSettings().equals(settings)) {
-				List<Integer> exclude = loadGivenRecommendations(userid)
-						.stream().map(GivenRecommendation::getBeatmapid)
-						.collect(Collectors.toList());
-				Collection<BareRecommendation> recommendations = backend
-						.loadRecommendations(userid, exclude, settings.getModel(),
-								settings.isNomod(), settings.getRequestedMods());
-
-				// only keep the 1k most probable recommendations to save some
-				// memory
-				recommendations = getTopRecommendations(recommendations, settings.getPredicates());
-
-				sampler = new Sampler<>(recommendations, settings, BareRecommendation::getProbability);
+				sampler = createSampler(userid, settings);
 
 				samplers.put(userid, sampler);
 			}
 		}
+		(sampler == cached ? samplerHits : samplerMisses).incrementAndGet();
 
 		if (sampler.isEmpty()) {
 			samplers.invalidate(userid);
@@ -162,16 +282,123 @@ public class RecommendationsManager {
 
 		Recommendation recommendation = new Recommendation(loadBeatmap, sample);
 		
-		loadGivenRecommendations(userid).add(toGivenRecommendation(sample, userid));
+		GivenRecommendations given = loadGivenRecommendations(userid);
+		given.add(beatmapid, System.currentTimeMillis(), sample.getMods());
+		// re-insert to update the weight
+		givenRecomendations.put(userid, given);
 		lastRecommendation.put(userid, recommendation);
 
+		if (needsRefill(sampler, System.currentTimeMillis())) {
+			scheduleRefill(userid, sampler);
+		}
+
 		return recommendation;
 	}
 
-	private GivenRecommendation toGivenRecommendation(
-			BareRecommendation sample, @UserId int userid) {
-		return new GivenRecommendation(userid, sample.getBeatmapId(),
-				System.currentTimeMillis(), sample.getMods());
+	private Sampler<BareRecommendation, RecommendationRequest> createSampler(@UserId int userid,
+			RecommendationRequest settings) throws SQLException, IOException, UserException {
+		Collection<BareRecommendation> recommendations = backend
+				.loadRecommendations(userid, loadExclusions(userid), settings.getModel(),
+						settings.isNomod(), settings.getRequestedMods());
+
+		recommendations = getTopRecommendations(recommendations, settings.getPredicates());
+
+		return new Sampler<>(new CompactRecommendations(recommendations), settings);
+	}
+
+	/**
+	 * A sampler needs to be refilled if it is about to expire or if it is
+	 * running low. Samplers which were never cut down to
+	 * {@value #MAX_SAMPLER_SIZE} already contain everything that the backend
+	 * had to offer, so refilling those would not help.
+	 */
+	static boolean needsRefill(Sampler<?, ?> sampler, long now) {
+		if (sampler.getCreatedAt() < now - REFILL_AFTER) {
+			return true;
+		}
+		return sampler.size() >= MAX_SAMPLER_SIZE && sampler.remaining() < REFILL_THRESHOLD;
+	}
+
+	private void scheduleRefill(@UserId int userid, Sampler<BareRecommendation, RecommendationRequest> sampler) {
+		if (!pendingRefills.add(userid)) {
+			return;
+		}
+		if (refilling.compareAndSet(false, true)) {
+			shutdownHook.add();
+		}
+		try {
+			refillExecutor.execute(() -> {
+				try {
+					refillSampler(userid, sampler);
+				} finally {
+					pendingRefills.remove(userid);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingRefills.remove(userid);
+			log.debug("Sampler refill queue is full");
+		}
+	}
+
+	/**
+	 * Creates a fresh sampler with the same settings and replaces the given
+	 * sampler with it, unless the user has moved on to different settings in
+	 * the meantime. Runs with {@link RateLimiter#MAINTENANCE} priority.
+	 */
+	void refillSampler(@UserId int userid, Sampler<BareRecommendation, RecommendationRequest> sampler) {
+		EntityManager oldEm = em.setThreadLocalEntityManager(emf.createEntityManager());
+		rateLimiter.setThreadPriority(RateLimiter.MAINTENANCE);
+		try {
+
+			Sampler<BareRecommendation, RecommendationRequest> refilled = createSampler(userid, sampler.getSettings());
+			/*
+			 * Recommendations which are given while the new sampler is being
+			 * created might be given again from the new sampler. The window is
+			 * short and the alternative is holding up the interactive path.
+			 */
+			if (samplers.asMap().replace(userid, sampler, refilled)) {
+				samplerRefills.incrementAndGet();
+			}
+		} catch (SQLException | IOException | UserException | RuntimeException e) {
+			log.warn("Error refilling sampler for user {}", userid, e);
+		} finally {
+			em.closeAndReplace(oldEm);
+			rateLimiter.clearThreadPriority();
+		}
+	}
+
+	/**
+	 * Stops refilling samplers. Refills which are still queued are dropped;
+	 * the samplers are loaded interactively instead.
+	 */
+	@Override
+	public void tidyUp(boolean fromShutdownHook) {
+		refillExecutor.shutdownNow();
+		shutdownHook.remove(fromShutdownHook);
+	}
+
+	/**
+	 * @return the number of recommendation requests which were served from a
+	 *         cached sampler
+	 */
+	public long getSamplerCacheHits() {
+		return samplerHits.get();
+	}
+
+	/**
+	 * @return the number of recommendation requests which had to load a new
+	 *         sampler from the backend
+	 */
+	public long getSamplerCacheMisses() {
+		return samplerMisses.get();
+	}
+
+	/**
+	 * @return the number of samplers which were replaced by a background
+	 *         refill
+	 */
+	public long getSamplerRefills() {
+		return samplerRefills.get();
 	}
 
 	public RecommendationRequest parseSamplerSettings(OsuApiUser apiUser, @Nonnull String message,
@@ -180,39 +407,122 @@ public class RecommendationsManager {
 	}
 
 	/**
-	 * returns
-	 * 
-	 * @param recommendations
-	 * @param predicates
-	 * @return
+	 * Selects the most probable recommendations which pass all predicates.
+	 * Predicates which support it are checked for all candidates at once
+	 * against the {@link BeatmapAttributeIndex}. If that's all, only the
+	 * current top {@value #MAX_SAMPLER_SIZE} are kept in a min-heap while
+	 * streaming over the candidates. Otherwise, see
+	 * {@link #getTopRecommendationsLoadingBeatmaps(Collection, BitSet, List)}.
+	 *
+	 * @param recommendations all candidates
+	 * @param predicates all of these must be satisfied
+	 * @return at most {@value #MAX_SAMPLER_SIZE} elements, from most to least
+	 *         probable
 	 * @throws IOException
 	 * @throws SQLException
 	 */
 	public List<BareRecommendation> getTopRecommendations(
 			Collection<BareRecommendation> recommendations,
 			List<RecommendationPredicate> predicates) throws SQLException, IOException {
-		List<BareRecommendation> list = new ArrayList<>();
+		BitSet rejected = new BitSet();
+		List<RecommendationPredicate> remainingPredicates = new ArrayList<>();
+		if (!predicates.isEmpty()) {
+			int[] beatmapIds = new int[recommendations.size()];
+			long[] mods = new long[beatmapIds.length];
+			int i = 0;
+			for (BareRecommendation bareRecommendation : recommendations) {
+				beatmapIds[i] = bareRecommendation.getBeatmapId();
+				mods[i] = bareRecommendation.getMods();
+				i++;
+			}
 
-		recommendationsLoop: for (BareRecommendation bareRecommendation : recommendations) {
-			OsuApiBeatmap beatmap = null;
+			BeatmapAttributeIndex.Snapshot attributes = null;
+			if (predicates.stream().anyMatch(RecommendationPredicate::usesIndex)) {
+				attributes = beatmapAttributes.ensureLoaded(beatmapsLoader, beatmapIds);
+			}
 			for (RecommendationPredicate predicate : predicates) {
-				if (beatmap == null) {
-					beatmap = beatmapsLoader.getBeatmap(bareRecommendation.getBeatmapId());
+				if (!predicate.testAll(attributes, beatmapIds, mods, rejected)) {
+					remainingPredicates.add(predicate);
+				}
+			}
+
+			if (!remainingPredicates.isEmpty()) {
+				return getTopRecommendationsLoadingBeatmaps(recommendations, rejected, remainingPredicates);
+			}
+		}
+
+		PriorityQueue<BareRecommendation> top = new PriorityQueue<>(
+				Math.min(recommendations.size(), MAX_SAMPLER_SIZE) + 1, BY_PROBABILITY);
+		int i = -1;
+		for (BareRecommendation bareRecommendation : recommendations) {
+			i++;
+			if (rejected.get(i)) {
+				continue;
+			}
+			if (top.size() >= MAX_SAMPLER_SIZE
+					&& bareRecommendation.getProbability() <= top.peek().getProbability()) {
+				continue;
+			}
+			top.add(bareRecommendation);
+			if (top.size() > MAX_SAMPLER_SIZE) {
+				top.poll();
+			}
+		}
+
+		ArrayList<BareRecommendation> list = new ArrayList<>(top);
+		list.sort(BY_PROBABILITY.reversed());
+		return list;
+	}
+
+	/**
+	 * Goes through the candidates from most to least probable and stops as
+	 * soon as {@value #MAX_SAMPLER_SIZE} have passed the predicates, so
+	 * beatmaps are only loaded for candidates which can still make the cut.
+	 * They are loaded in batches of as many candidates as there are free
+	 * places, but at least {@value #MIN_BEATMAP_BATCH}.
+	 *
+	 * @param rejected candidates which were already rejected
+	 * @param predicates these need the beatmaps
+	 */
+	private List<BareRecommendation> getTopRecommendationsLoadingBeatmaps(
+			Collection<BareRecommendation> recommendations, BitSet rejected,
+			List<RecommendationPredicate> predicates) throws SQLException, IOException {
+		List<BareRecommendation> candidates = new ArrayList<>(recommendations.size() - rejected.cardinality());
+		int i = 0;
+		for (BareRecommendation bareRecommendation : recommendations) {
+			if (!rejected.get(i++)) {
+				candidates.add(bareRecommendation);
+			}
+		}
+		candidates.sort(BY_PROBABILITY.reversed());
+
+		List<BareRecommendation> top = new ArrayList<>();
+		Map<Integer, OsuApiBeatmap> beatmaps = new HashMap<>();
+		int loaded = 0;
+		recommendationsLoop: for (int c = 0; c < candidates.size() && top.size() < MAX_SAMPLER_SIZE; c++) {
+			if (c == loaded) {
+				loaded = Math.min(candidates.size(), c + Math.max(MIN_BEATMAP_BATCH, MAX_SAMPLER_SIZE - top.size()));
+				int[] batch = candidates.subList(c, loaded).stream()
+						.mapToInt(BareRecommendation::getBeatmapId)
+						.filter(beatmapId -> !beatmaps.containsKey(beatmapId))
+						.distinct().sorted().toArray();
+				if (batch.length > 0) {
+					OsuApiBeatmap[] batchBeatmaps = beatmapsLoader.getBeatmaps(batch);
+					for (int b = 0; b < batch.length; b++) {
+						beatmaps.put(batch[b], batchBeatmaps[b]);
+					}
 				}
+			}
+			BareRecommendation bareRecommendation = candidates.get(c);
+			OsuApiBeatmap beatmap = beatmaps.get(bareRecommendation.getBeatmapId());
+			for (RecommendationPredicate predicate : predicates) {
 				if (!predicate.test(bareRecommendation, beatmap)) {
 					continue recommendationsLoop;
 				}
 			}
-			list.add(bareRecommendation);
+			top.add(bareRecommendation);
 		}
-
-		Collections.sort(list, Comparator.comparingDouble(BareRecommendation::getProbability).reversed());
-
-		int size = Math.min(list.size(), 1000);
-		ArrayList<BareRecommendation> arrayList = new ArrayList<>(size);
-		arrayList.addAll(list.subList(0, size));
-		
-		return arrayList;
+		return top;
 	}
 
 	/**
@@ -221,6 +531,7 @@ public class RecommendationsManager {
 	 * @param user
 	 */
 	public void forgetRecommendations(@UserId int user) {
+		givenRecommendationWriter.flush(user);
 		em.ensureTransaction(() -> recommendationsRepo.forgetAll(user));
 		givenRecomendations.getUnchecked(user).clear();
 	}
@@ -229,24 +540,70 @@ public class RecommendationsManager {
 			@BeatmapId int beatmapid, @BitwiseMods long mods) {
 		GivenRecommendation givenRecommendation = new GivenRecommendation(
 				userid, beatmapid, System.currentTimeMillis(), mods);
-		recommendationsRepo.save(givenRecommendation);
+		// this is written in the background; the cached list is already up to date
+		givenRecommendationWriter.save(givenRecommendation);
 	}
 	
 	/**
 	 * recommendations from the last four weeks
 	 * @param userid
-	 * @return ordered by date given from newest to oldest
+	 * @return ordered by date given from oldest to newest
 	 */
-	public List<GivenRecommendation> loadGivenRecommendations(@UserId int userid) {
+	public GivenRecommendations loadGivenRecommendations(@UserId int userid) {
 		return givenRecomendations.getUnchecked(userid);
 	}
 
-	private List<GivenRecommendation> doLoadGivenRecommendations(@UserId int userid) {
-		// we have to make a copy here since this list will escape the current entity manager
-		return new ArrayList<>(recommendationsRepo
-				.findByUseridAndDateGreaterThanAndForgottenFalseOrderByDateDesc(
-						userid, System.currentTimeMillis() - 28l * 24 * 60 * 60
-								* 1000));
+	/**
+	 * the beatmap ids of {@link #loadGivenRecommendations(int)}
+	 * @return a snapshot
+	 */
+	public BeatmapIdSet loadExclusions(@UserId int userid) {
+		return loadGivenRecommendations(userid).getExclusions();
+	}
+
+	/**
+	 * Loads the given recommendations from the database and adds those which
+	 * are still queued in the {@link GivenRecommendationWriter}.
+	 */
+	private GivenRecommendations doLoadGivenRecommendations(@UserId int userid) {
+		long minDate = System.currentTimeMillis() - 28l * 24 * 60 * 60 * 1000;
+		// before querying: anything which is written in between is in the query
+		List<GivenRecommendation> pending = givenRecommendationWriter.getPending(userid);
+		List<GivenRecommendation> loaded = new ArrayList<>(recommendationsRepo
+				.findByUseridAndDateGreaterThanAndForgottenFalseOrderByDateDesc(userid, minDate));
+		Collections.reverse(loaded);
+		if (!pending.isEmpty()) {
+			Set<List<Long>> written = loaded.stream()
+					.map(r -> Arrays.asList((long) r.getBeatmapid(), r.getDate(), r.getMods()))
+					.collect(Collectors.toSet());
+			for (GivenRecommendation recommendation : pending) {
+				if (recommendation.getDate() > minDate && !recommendation.isForgotten() && !written.contains(
+						Arrays.asList((long) recommendation.getBeatmapid(), recommendation.getDate(), recommendation.getMods()))) {
+					loaded.add(recommendation);
+				}
+			}
+			loaded.sort(Comparator.comparingLong(GivenRecommendation::getDate));
+		}
+		GivenRecommendations given = new GivenRecommendations(userid);
+		for (GivenRecommendation recommendation : loaded) {
+			given.add(recommendation.getBeatmapid(), recommendation.getDate(), recommendation.getMods());
+		}
+		return given;
+	}
+
+	/**
+	 * @return the number of users in the given recommendations cache
+	 */
+	public long getGivenRecommendationsCacheSize() {
+		return givenRecomendations.size();
+	}
+
+	/**
+	 * @return the estimated heap space occupied by the given recommendations
+	 *         cache
+	 */
+	public long getGivenRecommendationsCacheBytes() {
+		return givenRecomendations.asMap().values().stream().mapToLong(GivenRecommendations::estimatedBytes).sum();
 	}
 	
 	/**
@@ -254,6 +611,7 @@ public class RecommendationsManager {
 	 * still taken into account when generating new recommendations.
 	 */
 	public void hideRecommendation(@UserId int userId, @BeatmapId int beatmapid, @BitwiseMods long mods) {
+		givenRecommendationWriter.flush(userId);
 		em.ensureTransaction(() -> recommendationsRepo.hideRecommendations(userId, beatmapid, mods));
 	}
 
@@ -262,6 +620,7 @@ public class RecommendationsManager {
 	 * @return ordered by date given from newest to oldest
 	 */
 	public List<GivenRecommendation> loadVisibleRecommendations(@UserId int userId) {
+		givenRecommendationWriter.flush(userId);
 		return recommendationsRepo.findByUseridAndHiddenFalseOrderByDateDesc(userId);
 	}
 }
@@ -1,28 +1,67 @@
 package tillerino.tillerinobot.recommendations;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Random;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.function.ToDoubleFunction;
 
 import lombok.Getter;
 
 /**
- * Distribution for recommendations. Changes upon sampling.
- * 
+ * Distribution for recommendations. Changes upon sampling: every sampled
+ * element is removed from the distribution.
+ *
+ * <p>
+ * The weights are kept in a Fenwick tree (binary indexed tree) over a
+ * primitive array, so sampling and removing an element are both O(log n) and
+ * do not allocate.
+ *
  * @author Tillerino
  * @param T domain to sample from
  * @param S settings which were used to fill this sampler
  */
 public class Sampler<T, S> {
-	private final SortedMap<Double, T> distribution = new TreeMap<>();
+	/**
+	 * Random-access storage of the elements of a sampler. This allows the
+	 * elements to be stored in whatever form is most compact.
+	 */
+	public interface Population<T> {
+		int size();
+
+		T get(int index);
+
+		/**
+		 * Is normalized automatically, i.e. does not need to sum up to one.
+		 */
+		double getProbability(int index);
+
+		/**
+		 * @return a rough estimate of the heap space occupied by this population
+		 */
+		long estimatedBytes();
+	}
+
+	private final Population<T> population;
+	private final BitSet removed;
+	/**
+	 * 1-based Fenwick tree over the probabilities of the population.
+	 */
+	private final double[] tree;
+	/**
+	 * Highest power of two which is not larger than the number of elements.
+	 * Starting point for the descent in {@link #find(double)}.
+	 */
+	private final int topStep;
+	private int remaining;
 	private double sum = 0;
 	private final Random random = new Random();
 	@Getter
 	private final S settings;
-	private final ToDoubleFunction<T> probabilityDistribution;
+	/**
+	 * The time at which this sampler was filled.
+	 */
+	@Getter
+	private final long createdAt = System.currentTimeMillis();
 
 	/**
 	 * Creates a new Sampler.
@@ -32,46 +71,153 @@ public class Sampler<T, S> {
 	 * @param probabilityDistribution the probablilities for each element. Is normalized automatically, i.e. does not need to sum up to one.
 	 */
 	public Sampler(Collection<T> population, S settings, ToDoubleFunction<T> probabilityDistribution) {
-		for (T elem : population) {
-			sum += probabilityDistribution.applyAsDouble(elem);
-			distribution.put(sum, elem);
+		this(new ArrayPopulation<>(population, probabilityDistribution), settings);
+	}
+
+	/**
+	 * Creates a new Sampler.
+	 *
+	 * @param population the entire set of elements to sample from. Must not be modified afterwards.
+	 * @param settings the settings that were used to create this distribution (stored for convenience).
+	 */
+	public Sampler(Population<T> population, S settings) {
+		this.population = population;
+		int size = population.size();
+		remaining = size;
+		removed = new BitSet(size);
+		tree = new double[size + 1];
+		for (int i = 0; i < size; i++) {
+			double weight = population.getProbability(i);
+			sum += weight;
+			// linear construction: push each node into its parent
+			tree[i + 1] += weight;
+			int parent = (i + 1) + ((i + 1) & -(i + 1));
+			if (parent <= size) {
+				tree[parent] += tree[i + 1];
+			}
 		}
+		topStep = Integer.highestOneBit(size);
 		this.settings = settings;
-		this.probabilityDistribution = probabilityDistribution;
 	}
 
-	public boolean isEmpty() {
-		return distribution.isEmpty();
+	public synchronized boolean isEmpty() {
+		return remaining == 0;
+	}
+
+	/**
+	 * @return the number of elements which have not been sampled yet
+	 */
+	public synchronized int remaining() {
+		return remaining;
+	}
+
+	/**
+	 * @return the number of elements that this sampler was created with
+	 */
+	public int size() {
+		return population.size();
 	}
 
 	public synchronized T sample() {
-		double x = random.nextDouble() * sum;
-		
-		SortedMap<Double, T> rest = distribution.tailMap(x);
-		if(rest.size() == 0) {
-			// this means that there was some extreme numerical instability.
-			// this is practically not possible. at least not *maximum stack
-			// size* times in a row.
-			return sample();
+		if (remaining == 0) {
+			throw new IllegalStateException("Sampler is empty");
 		}
-		
-		sum = rest.firstKey();
-		
-		T sample = rest.remove(sum);
-		
-		sum -= probabilityDistribution.applyAsDouble(sample);
-		
-		Collection<T> refill = new ArrayList<>();
-		
-		while(!rest.isEmpty()) {
-			refill.add(rest.remove(rest.firstKey()));
+		int index = find(random.nextDouble() * sum);
+
+		if (index >= tree.length - 1 || removed.get(index)) {
+			/*
+			 * floating point residue of removed elements can make the tree
+			 * point just past the remaining weight. Fall back to the closest
+			 * remaining element. This is practically never hit.
+			 */
+			index = closestRemaining(Math.min(index, tree.length - 2));
 		}
-		
-		for(T elem : refill) {
-			sum += probabilityDistribution.applyAsDouble(elem);
-			distribution.put(sum, elem);
+
+		remove(index);
+		return population.get(index);
+	}
+
+	/**
+	 * @return a rough estimate of the heap space occupied by this sampler,
+	 *         including its population
+	 */
+	public long estimatedBytes() {
+		return 8L * tree.length + tree.length / 8 + population.estimatedBytes();
+	}
+
+	/**
+	 * Finds the element at which the cumulative weight exceeds x.
+	 *
+	 * @return the 0-based index of the element. Equals the number of elements
+	 *         if x is not smaller than the total weight.
+	 */
+	private int find(double x) {
+		int position = 0;
+		for (int step = topStep; step > 0; step >>= 1) {
+			int next = position + step;
+			if (next < tree.length && tree[next] <= x) {
+				position = next;
+				x -= tree[next];
+			}
+		}
+		return position;
+	}
+
+	private int closestRemaining(int index) {
+		int before = removed.previousClearBit(index);
+		int after = removed.nextClearBit(index);
+		if (after >= tree.length - 1) {
+			return before;
+		}
+		return before >= 0 && index - before <= after - index ? before : after;
+	}
+
+	private void remove(int index) {
+		double weight = population.getProbability(index);
+		removed.set(index);
+		remaining--;
+		if (remaining == 0) {
+			sum = 0;
+		} else {
+			sum -= weight;
+		}
+		for (int node = index + 1; node < tree.length; node += node & -node) {
+			tree[node] -= weight;
+		}
+	}
+
+	private static class ArrayPopulation<T> implements Population<T> {
+		private final Object[] elements;
+		private final double[] probabilities;
+
+		ArrayPopulation(Collection<T> population, ToDoubleFunction<T> probabilityDistribution) {
+			elements = population.toArray();
+			probabilities = new double[elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				probabilities[i] = probabilityDistribution.applyAsDouble(get(i));
+			}
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(int index) {
+			return (T) elements[index];
+		}
+
+		@Override
+		public double getProbability(int index) {
+			return probabilities[index];
+		}
+
+		@Override
+		public long estimatedBytes() {
+			// we don't know the size of the elements themselves
+			return 16L * elements.length;
 		}
-		
-		return sample;
 	}
-}
\ No newline at end of file
+}
@@ -5,6 +5,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -17,11 +24,17 @@ import javax.ws.rs.core.Response.Status;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.tillerino.osuApiModel.OsuApiBeatmap;
 
-import lombok.RequiredArgsConstructor;
+import com.google.common.base.Throwables;
+
+import lombok.extern.slf4j.Slf4j;
 import tillerino.tillerinobot.data.ActualBeatmap;
+import tillerino.tillerinobot.data.BeatmapFileStore;
 import tillerino.tillerinobot.data.repos.ActualBeatmapRepository;
+import tillerino.tillerinobot.data.repos.ActualBeatmapRepository.FileHash;
+import tillerino.tillerinobot.data.util.ActualBeatmapBackfill;
+import tillerino.tillerinobot.diff.DifficultyCalculator;
 
-@RequiredArgsConstructor
+@Slf4j
 public abstract class AbstractBeatmapResource implements BeatmapResource {
 	public interface BeatmapDownloader {
 		@GET
@@ -30,38 +43,170 @@ public abstract class AbstractBeatmapResource implements BeatmapResource {
 		String getActualBeatmap(@PathParam("beatmapid") int beatmapid);
 	}
 
+	/**
+	 * Downloads in progress by beatmap id. Resources are created per request,
+	 * so this is shared by all of them: concurrent requests for the same
+	 * missing file wait for a single download.
+	 */
+	static final ConcurrentMap<Integer, CompletableFuture<byte[]>> DOWNLOADS = new ConcurrentHashMap<>();
+
 	protected final ActualBeatmapRepository repository;
 
 	protected final BeatmapDownloader downloader;
 
 	protected final OsuApiBeatmap beatmap;
 
+	/**
+	 * Optional. If present, files are read from here before going to the
+	 * database, and files from the database are copied here.
+	 */
+	protected final BeatmapFileStore fileStore;
+
+	/**
+	 * Optional. If present, stored files without a hash or uncompressed files
+	 * are handed to this instead of being saved on the request.
+	 */
+	protected final ActualBeatmapBackfill backfill;
+
+	protected AbstractBeatmapResource(ActualBeatmapRepository repository, BeatmapDownloader downloader,
+			OsuApiBeatmap beatmap) {
+		this(repository, downloader, beatmap, null);
+	}
+
+	protected AbstractBeatmapResource(ActualBeatmapRepository repository, BeatmapDownloader downloader,
+			OsuApiBeatmap beatmap, BeatmapFileStore fileStore) {
+		this(repository, downloader, beatmap, fileStore, null);
+	}
+
+	protected AbstractBeatmapResource(ActualBeatmapRepository repository, BeatmapDownloader downloader,
+			OsuApiBeatmap beatmap, BeatmapFileStore fileStore, ActualBeatmapBackfill backfill) {
+		this.repository = repository;
+		this.downloader = downloader;
+		this.beatmap = beatmap;
+		this.fileStore = fileStore;
+		this.backfill = backfill;
+	}
+
 	@Override
 	public String getFile() {
-		ActualBeatmap found = repository.findById(beatmap.getBeatmapId()).orElse(null);
-		if (found != null && (found.getHash() == null || found.getHash().isEmpty())) {
-			found.setHash(md5Hex(found.getContent()));
-			repository.save(found);
+		return UTF_8.decode(getFileContent()).toString();
+	}
+
+	/**
+	 * The beatmap file, e.g. for
+	 * {@link DifficultyCalculator#calculate(ByteBuffer, java.util.Collection)},
+	 * which can read it without decoding the entire file. If the file is in
+	 * the {@link #fileStore}, this is a read-only memory-mapped buffer and the
+	 * database is not accessed.
+	 */
+	public ByteBuffer getFileContent() {
+		if (fileStore != null && beatmap.getFileMd5() != null) {
+			try {
+				ByteBuffer stored = fileStore.get(beatmap.getFileMd5()).orElse(null);
+				if (stored != null) {
+					return stored;
+				}
+			} catch (IOException e) {
+				log.warn("Error reading beatmap file {} from store", beatmap.getFileMd5(), e);
+			}
+		}
+		byte[] file = loadFile();
+		putInFileStore(beatmap.getFileMd5(), file);
+		return ByteBuffer.wrap(file);
+	}
+
+	private void putInFileStore(String md5, byte[] file) {
+		if (fileStore == null) {
+			return;
 		}
-		if (found == null || (!found.getHash().equals(beatmap.getFileMd5())
-				&& found.getDownloaded() < System.currentTimeMillis() - HOURS.toMillis(1))) {
-			String downloaded = downloader.getActualBeatmap(beatmap.getBeatmapId());
-			if (found == null) {
-				found = new ActualBeatmap();
-				found.setBeatmapid(beatmap.getBeatmapId());
+		try {
+			fileStore.put(md5, file);
+		} catch (IOException e) {
+			log.warn("Error writing beatmap file {} to store", md5, e);
+		}
+	}
+
+	/**
+	 * Checks the stored hash before loading the file itself, so that a file
+	 * which needs to be downloaded again is not loaded for nothing.
+	 */
+	private byte[] loadFile() {
+		FileHash stored = repository.findHashByBeatmapid(beatmap.getBeatmapId()).orElse(null);
+		String hash = stored != null ? stored.getHash() : null;
+		byte[] file = null;
+		if (stored != null && (hash == null || hash.isEmpty())) {
+			// stored before hashes were; see loadStoredFile()
+			file = loadStoredFile();
+			hash = md5Hex(file);
+		}
+		if (stored == null || (!hash.equals(beatmap.getFileMd5())
+				&& stored.getDownloaded() < System.currentTimeMillis() - HOURS.toMillis(1))) {
+			file = download();
+			hash = md5Hex(file);
+		}
+		if (!hash.equals(beatmap.getFileMd5())) {
+			throw new WebApplicationException(Response.status(Status.BAD_GATEWAY)
+					.entity(format("Beatmap %s is damaged. Expected hash code: %s Actual: %s", beatmap.getBeatmapId(),
+							beatmap.getFileMd5(), hash))
+					.build());
+		}
+		return file != null ? file : loadStoredFile();
+	}
+
+	/**
+	 * Downloads and saves the file. If the same file is already being
+	 * downloaded for another request, waits for that download instead.
+	 */
+	private byte[] download() {
+		int beatmapId = beatmap.getBeatmapId();
+		CompletableFuture<byte[]> download = new CompletableFuture<>();
+		CompletableFuture<byte[]> inFlight = DOWNLOADS.putIfAbsent(beatmapId, download);
+		if (inFlight != null) {
+			try {
+				return inFlight.join();
+			} catch (CompletionException e) {
+				Throwables.throwIfUnchecked(e.getCause());
+				throw e;
 			}
-			found.setContent(downloaded.getBytes(UTF_8));
+		}
+		try {
+			String downloaded = downloader.getActualBeatmap(beatmapId);
+			byte[] file = downloaded.getBytes(UTF_8);
+			ActualBeatmap found = new ActualBeatmap();
+			found.setBeatmapid(beatmapId);
+			found.setFileContent(file);
 			found.setDownloaded(System.currentTimeMillis());
 			found.setHash(md5Hex(downloaded));
 			repository.save(found);
+			download.complete(file);
+			return file;
+		} catch (RuntimeException | Error e) {
+			download.completeExceptionally(e);
+			throw e;
+		} finally {
+			DOWNLOADS.remove(beatmapId, download);
 		}
-		if (!found.getHash().equals(beatmap.getFileMd5())) {
-			throw new WebApplicationException(Response.status(Status.BAD_GATEWAY)
-					.entity(format("Beatmap %s is damaged. Expected hash code: %s Actual: %s", beatmap.getBeatmapId(),
-							beatmap.getFileMd5(), found.getHash()))
-					.build());
+	}
+
+	/**
+	 * Loads the file from the database. Rows which were stored without a hash
+	 * or uncompressed are handed to the {@link #backfill}. Without one, a
+	 * missing hash is saved right here so that the file is only hashed once.
+	 */
+	private byte[] loadStoredFile() {
+		ActualBeatmap stored = repository.findById(beatmap.getBeatmapId())
+				.orElseThrow(() -> new WebApplicationException(Status.NOT_FOUND));
+		byte[] file = stored.getFileContent();
+		boolean missingHash = stored.getHash() == null || stored.getHash().isEmpty();
+		if (backfill != null) {
+			if (missingHash || !stored.isCompressed()) {
+				backfill.fixLater(stored.getBeatmapid());
+			}
+		} else if (missingHash) {
+			stored.setHash(md5Hex(file));
+			repository.save(stored);
 		}
-		return new String(found.getContent(), UTF_8);
+		return file;
 	}
 
 	@Override
@@ -77,9 +222,11 @@ public abstract class AbstractBeatmapResource implements BeatmapResource {
 			found = new ActualBeatmap();
 			found.setBeatmapid(beatmap.getBeatmapId());
 		}
-		found.setContent(content.getBytes(UTF_8));
+		byte[] file = content.getBytes(UTF_8);
+		found.setFileContent(file);
 		found.setDownloaded(System.currentTimeMillis());
 		found.setHash(hash);
 		repository.save(found);
+		putInFileStore(hash, file);
 	}
 }
@@ -6,7 +6,6 @@ import static org.tillerino.osuApiModel.Mods.getMods;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -33,7 +32,12 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.RequiredArgsConstructor;
 import tillerino.tillerinobot.BeatmapMeta;
 import tillerino.tillerinobot.BotBackend;
@@ -90,6 +94,8 @@ public class BeatmapInfoService implements BeatmapDifficulties {
 				}
 			});
 	
+	static final double[] DEFAULT_ACCURACIES = { 1.0, .995, .99, .985, .98, .975, .97, .96, .95, .93, .9, .85, .8, .75 };
+
 	@Data
 	public static class BeatmapInfo {
 		int beatmapid;
@@ -97,6 +103,48 @@ public class BeatmapInfoService implements BeatmapDifficulties {
 		Map<Double, Double> ppForAcc = new TreeMap<>();
 		boolean oppaiOnly;
 		Double starDiff;
+
+		/*
+		 * The service fills these instead of ppForAcc. The JSON provider needs a
+		 * map of boxed values, so the map is only built when it is requested.
+		 */
+		@Getter(AccessLevel.NONE)
+		@Setter(AccessLevel.NONE)
+		@EqualsAndHashCode.Exclude
+		@ToString.Exclude
+		double[] accs;
+		@Getter(AccessLevel.NONE)
+		@Setter(AccessLevel.NONE)
+		@EqualsAndHashCode.Exclude
+		@ToString.Exclude
+		double[] pps;
+
+		/**
+		 * @param accs accuracies; not copied
+		 * @param pps  pp for each accuracy; not copied
+		 */
+		public void setPpForAcc(double[] accs, double[] pps) {
+			this.accs = accs;
+			this.pps = pps;
+			ppForAcc = null;
+		}
+
+		public void setPpForAcc(Map<Double, Double> ppForAcc) {
+			this.ppForAcc = ppForAcc;
+			accs = null;
+			pps = null;
+		}
+
+		public Map<Double, Double> getPpForAcc() {
+			if (ppForAcc == null) {
+				Map<Double, Double> map = new TreeMap<>();
+				for (int i = 0; i < accs.length; i++) {
+					map.put(accs[i], pps[i]);
+				}
+				ppForAcc = map;
+			}
+			return ppForAcc;
+		}
 	}
 	
 	@Override
@@ -117,13 +165,11 @@ public class BeatmapInfoService implements BeatmapDifficulties {
 			info.oppaiOnly = estimates.isOppaiOnly();
 			info.starDiff = estimates.getStarDiff();
 
-			if(requestedAccs.isEmpty()) {
-				requestedAccs.addAll(Arrays.asList(1.0, .995, .99, .985, .98, .975, .97, .96, .95, .93, .9, .85, .8, .75));
-			}
-
-			for (double acc : requestedAccs) {
-				info.ppForAcc.put(acc, estimates.getPP(acc));
-			}
+			double[] accs = requestedAccs.isEmpty() ? DEFAULT_ACCURACIES.clone()
+					: requestedAccs.stream().mapToDouble(Double::doubleValue).toArray();
+			double[] pps = new double[accs.length];
+			estimates.getPP(accs, pps);
+			info.setPpForAcc(accs, pps);
 
 			return info;
 		} catch (InterruptedException e) {
@@ -6,9 +6,16 @@ import javax.ws.rs.NotFoundException;
 
 import org.tillerino.ppaddict.chat.GameChatClient;
 import org.tillerino.ppaddict.chat.local.LocalGameChatMetrics;
+import org.tillerino.ppaddict.chat.local.OsuApiPermitMetrics;
 import org.tillerino.ppaddict.util.Clock;
 
+import com.google.common.primitives.Longs;
+
 import lombok.RequiredArgsConstructor;
+import tillerino.tillerinobot.RateLimiter;
+import tillerino.tillerinobot.RateLimiter.PriorityMetrics;
+import tillerino.tillerinobot.recommendations.RecommendationRequestParser;
+import tillerino.tillerinobot.recommendations.RecommendationsManager;
 
 @Singleton
 @RequiredArgsConstructor(onConstructor = @__(@Inject))
@@ -19,12 +26,38 @@ public class BotInfoService implements BotStatus {
 
 	private final Clock clock;
 
+	private final RecommendationsManager recommendationsManager;
+
+	private final RecommendationRequestParser requestParser;
+
+	private final RateLimiter rateLimiter;
+
 	@Override
 	public LocalGameChatMetrics botinfo() {
 		botInfo.setConnected(bot.isConnected());
+		botInfo.setSamplerCacheHits(recommendationsManager.getSamplerCacheHits());
+		botInfo.setSamplerCacheMisses(recommendationsManager.getSamplerCacheMisses());
+		botInfo.setSamplerRefills(recommendationsManager.getSamplerRefills());
+		botInfo.setGivenRecommendationsCacheSize(recommendationsManager.getGivenRecommendationsCacheSize());
+		botInfo.setGivenRecommendationsCacheBytes(recommendationsManager.getGivenRecommendationsCacheBytes());
+		botInfo.setRequestParseCacheHits(requestParser.getParseCacheHits());
+		botInfo.setRequestParseCacheMisses(requestParser.getParseCacheMisses());
+		botInfo.setRequestParseNanos(requestParser.getParseNanos());
+		botInfo.setOsuApiPermitsPerMinute(rateLimiter.getPermitsPerMinute());
+		botInfo.setOsuApiBackingOff(rateLimiter.isBackingOff());
+		botInfo.setOsuApiBackoffs(rateLimiter.getBackoffs());
+		botInfo.setOsuApiRequestPermits(permitMetrics(RateLimiter.REQUEST));
+		botInfo.setOsuApiEventPermits(permitMetrics(RateLimiter.EVENT));
+		botInfo.setOsuApiMaintenancePermits(permitMetrics(RateLimiter.MAINTENANCE));
 		return botInfo;
 	}
 
+	private OsuApiPermitMetrics permitMetrics(int priority) {
+		PriorityMetrics metrics = rateLimiter.getMetrics(priority);
+		return new OsuApiPermitMetrics(metrics.getImmediate(), metrics.getBlocked(), metrics.getBlockedMillis(),
+				metrics.getAvailablePermits(), Longs.asList(metrics.getWaitHistogram()));
+	}
+
 	/*
 	 * The following are endpoints for automated health checks, so they don't return anything
 	 * valuable other than a 200 or 404.
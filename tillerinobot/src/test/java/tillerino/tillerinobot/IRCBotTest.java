@@ -57,6 +57,8 @@ import org.tillerino.ppaddict.web.AbstractPpaddictUserDataService;
 import tillerino.tillerinobot.AbstractDatabaseTest.CreateInMemoryDatabaseModule;
 import tillerino.tillerinobot.osutrack.TestOsutrackDownloader;
 import tillerino.tillerinobot.recommendations.BareRecommendation;
+import tillerino.tillerinobot.recommendations.BeatmapIdSet;
+import tillerino.tillerinobot.recommendations.GivenRecommendationWriter;
 import tillerino.tillerinobot.recommendations.Model;
 import tillerino.tillerinobot.recommendations.RecommendationRequestParser;
 import tillerino.tillerinobot.recommendations.RecommendationsManager;
@@ -128,8 +130,9 @@ public class IRCBotTest extends AbstractDatabaseTest {
 			}
 			recMan = this.recommendationsManager;
 		} else {
-			recMan = spy(new RecommendationsManager(backend, recommendationsRepo, em,
-					new RecommendationRequestParser(backend), new TestBackend.TestBeatmapsLoader()));
+			recMan = spy(new RecommendationsManager(backend, recommendationsRepo, em, emf,
+					new RecommendationRequestParser(backend), new TestBackend.TestBeatmapsLoader(), rateLimiter,
+					new GivenRecommendationWriter(recommendationsRepo, em, emf)));
 		}
 
 		IRCBot ircBot = new IRCBot(backend, recMan, new UserDataManager(backend, emf, em, userDataRepository),
@@ -294,7 +297,7 @@ public class IRCBotTest extends AbstractDatabaseTest {
 		verifyResponse(bot, message("user", "!R"), anyResponse());
 
 		verify(backend).loadRecommendations(anyInt(),
-				any(),
+				any(BeatmapIdSet.class),
 				eq(Model.GAMMA5), anyBoolean(), anyLong());
 	}
 
@@ -307,7 +310,7 @@ public class IRCBotTest extends AbstractDatabaseTest {
 		verifyResponse(bot, message("user", "!R"), anyResponse());
 
 		verify(backend).loadRecommendations(anyInt(),
-				any(),
+				any(BeatmapIdSet.class),
 				eq(Model.GAMMA5), anyBoolean(), anyLong());
 	}
 
@@ -380,7 +383,7 @@ public class IRCBotTest extends AbstractDatabaseTest {
 	@Test
 	public void maintenance() throws Exception {
 		IRCBot bot = getTestBot(backend);
-		doThrow(MaintenanceException.class).when(backend).loadRecommendations(anyInt(), any(), any(), anyBoolean(), anyLong());
+		doThrow(MaintenanceException.class).when(backend).loadRecommendations(anyInt(), any(BeatmapIdSet.class), any(), anyBoolean(), anyLong());
 		backend.hintUser("user", false, 1000, 1000);
 		turnOffVersionMessage();
 		verifyResponse(bot, message("user", "!r"), messageContaining("maintenance"));
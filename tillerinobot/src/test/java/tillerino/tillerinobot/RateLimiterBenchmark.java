@@ -0,0 +1,68 @@
+package tillerino.tillerinobot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Contention on the {@link RateLimiter}: every thread adds a permit and takes
+ * one, so the threads never wait for a refill and only the cost of handing
+ * out permits is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+	RateLimiter limiter = new RateLimiter();
+
+	@State(Scope.Thread)
+	public static class Priority {
+		@Setup
+		public void setThreadPriority(RateLimiterBenchmark benchmark) {
+			benchmark.limiter.setThreadPriority(RateLimiter.REQUEST);
+		}
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void threads8(Priority priority) throws InterruptedException {
+		addAndTake();
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void threads32(Priority priority) throws InterruptedException {
+		addAndTake();
+	}
+
+	@Benchmark
+	@Threads(128)
+	public void threads128(Priority priority) throws InterruptedException {
+		addAndTake();
+	}
+
+	private void addAndTake() throws InterruptedException {
+		limiter.addPermit();
+		limiter.limitRate();
+		limiter.blockedTime();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(RateLimiterBenchmark.class.getSimpleName()).build()).run();
+	}
+}
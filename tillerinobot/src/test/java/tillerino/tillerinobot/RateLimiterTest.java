@@ -1,16 +1,29 @@
 package tillerino.tillerinobot;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tillerino.tillerinobot.RateLimiter.EVENT;
+import static tillerino.tillerinobot.RateLimiter.REQUEST;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import org.junit.AfterClass;
 import org.junit.Test;
 
+import tillerino.tillerinobot.RateLimiter.PriorityMetrics;
+
 public class RateLimiterTest {
 	private static ExecutorService exec = Executors.newCachedThreadPool();
 
@@ -90,5 +103,183 @@ public class RateLimiterTest {
 			Thread.sleep(10);
 		}
 		assertEquals(100, high.get());
-	} 
+	}
+
+	@Test
+	public void testRefill() throws Exception {
+		AtomicLong clock = new AtomicLong(123456789);
+		RateLimiter limiter = new RateLimiter(clock::get);
+		limiter.addPermit();
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		// no permits are added before refilling is started
+		assertEquals(asList(1, 0, 0), limiter.getPermitCount());
+
+		limiter.startRefilling();
+		clock.addAndGet(3 * RateLimiter.PERMIT_INTERVAL_NANOS + 1000000);
+		assertEquals(asList(4, 0, 0), limiter.getPermitCount());
+
+		clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+		assertEquals(asList(50, 50, 100), limiter.getPermitCount());
+
+		limiter.setThreadPriority(RateLimiter.EVENT);
+		limiter.limitRate();
+		assertEquals(asList(50, 50, 99), limiter.getPermitCount());
+		assertEquals(0, limiter.blockedTime());
+	}
+
+	@Test
+	public void testWaitsForRefill() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		limiter.startRefilling();
+		// maintenance would have to wait until the other buckets are full
+		limiter.setThreadPriority(RateLimiter.REQUEST);
+		long start = System.nanoTime();
+		limiter.limitRate();
+		assertTrue(System.nanoTime() - start >= RateLimiter.PERMIT_INTERVAL_NANOS / 2);
+		assertTrue(limiter.blockedTime() > 0);
+		assertEquals(0, limiter.blockedTime());
+	}
+
+	@Test
+	public void testWaitersAreServedFirst() throws Exception {
+		AtomicLong clock = new AtomicLong(123456789);
+		RateLimiter limiter = new RateLimiter(clock::get);
+		limiter.startRefilling();
+		Future<?> blocked = exec.submit(() -> {
+			limiter.setThreadPriority(REQUEST);
+			limiter.limitRate();
+			return null;
+		});
+		while (limiter.waitingCount(REQUEST) == 0) {
+			Thread.sleep(1);
+		}
+
+		clock.addAndGet(RateLimiter.PERMIT_INTERVAL_NANOS + 1000000);
+		// the permit which is now due goes to the thread which has been waiting
+		limiter.setThreadPriority(REQUEST);
+		CompletableFuture<Void> late = limiter.limitRateAsync();
+		assertFalse(late.isDone());
+		blocked.get(1, TimeUnit.SECONDS);
+
+		CompletableFuture<Void> later = limiter.limitRateAsync();
+		limiter.addPermit();
+		assertTrue(late.isDone());
+		assertFalse(later.isDone());
+		limiter.addPermit();
+		assertTrue(later.isDone());
+	}
+
+	@Test
+	public void testBackoff() throws Exception {
+		AtomicLong clock = new AtomicLong();
+		RateLimiter limiter = new RateLimiter(clock::get);
+		limiter.startRefilling();
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(3010));
+		assertEquals(asList(50, 10, 0), limiter.getPermitCount());
+
+		limiter.onOverload();
+		assertEquals(600, limiter.getPermitsPerMinute());
+		assertTrue(limiter.isBackingOff());
+		assertEquals(asList(25, 5, 0), limiter.getPermitCount());
+		// requests which were already underway don't count
+		limiter.onOverload();
+		limiter.onSuccess();
+		assertEquals(600, limiter.getPermitsPerMinute());
+		assertEquals(1, limiter.getBackoffs());
+
+		clock.addAndGet(RateLimiter.BACKOFF_NANOS);
+		limiter.onOverload();
+		assertEquals(300, limiter.getPermitsPerMinute());
+
+		clock.addAndGet(RateLimiter.BACKOFF_NANOS);
+		for (int i = 0; i < 10; i++) {
+			limiter.onSuccess();
+		}
+		assertEquals(310, limiter.getPermitsPerMinute());
+		// the permits don't matter here; take them
+		limiter.setThreadPriority(RateLimiter.REQUEST);
+		while (!limiter.getPermitCount().equals(asList(0, 0, 0))) {
+			limiter.limitRate();
+		}
+		// 51.6 intervals plus what was left of the interval when we took the last permit
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		List<Integer> permits = limiter.getPermitCount();
+		assertEquals(50, (int) permits.get(REQUEST));
+		assertTrue(permits.get(EVENT) == 1 || permits.get(EVENT) == 2);
+
+		for (int i = 0; i < 2000; i++) {
+			limiter.onSuccess();
+		}
+		assertEquals(RateLimiter.MAX_PERMITS_PER_MINUTE, limiter.getPermitsPerMinute());
+		assertFalse(limiter.isBackingOff());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setThreadPriority(RateLimiter.EVENT);
+		limiter.addPermit();
+		IntStream.range(0, 60).forEach(x -> limiter.addPermit());
+		limiter.limitRate();
+		assertEquals(10, limiter.getMetrics(RateLimiter.EVENT).getAvailablePermits());
+		assertEquals(60, limiter.getMetrics(RateLimiter.REQUEST).getAvailablePermits());
+
+		Future<?> blocked = exec.submit(() -> {
+			limiter.setThreadPriority(RateLimiter.MAINTENANCE);
+			limiter.limitRate();
+			return null;
+		});
+		Thread.sleep(30);
+		IntStream.range(0, 41).forEach(x -> limiter.addPermit());
+		blocked.get();
+
+		PriorityMetrics event = limiter.getMetrics(RateLimiter.EVENT);
+		assertEquals(1, event.getImmediate());
+		assertEquals(0, event.getBlocked());
+		assertEquals(0, LongStream.of(event.getWaitHistogram()).sum());
+
+		PriorityMetrics maintenance = limiter.getMetrics(RateLimiter.MAINTENANCE);
+		assertEquals(0, maintenance.getImmediate());
+		assertEquals(1, maintenance.getBlocked());
+		assertTrue(maintenance.getBlockedMillis() >= 20);
+		assertEquals(RateLimiter.WAIT_HISTOGRAM_BOUNDS_MILLIS.length + 1, maintenance.getWaitHistogram().length);
+		assertEquals(1, LongStream.of(maintenance.getWaitHistogram()).sum());
+		assertEquals(0, maintenance.getWaitHistogram()[0]);
+
+		// snapshots are immutable
+		maintenance.getWaitHistogram()[0] = 5;
+		assertEquals(0, maintenance.getWaitHistogram()[0]);
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setThreadPriority(RateLimiter.REQUEST);
+		limiter.addPermit();
+		assertTrue(limiter.limitRateAsync().isDone());
+
+		CompletableFuture<Void> first = limiter.limitRateAsync();
+		CompletableFuture<Void> second = limiter.limitRateAsync();
+		assertFalse(first.isDone());
+		limiter.addPermit();
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		limiter.addPermit();
+		assertTrue(second.isDone());
+
+		PriorityMetrics request = limiter.getMetrics(RateLimiter.REQUEST);
+		assertEquals(1, request.getImmediate());
+		assertEquals(2, request.getBlocked());
+	}
+
+	@Test
+	public void testAsyncWaitsForRefill() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		limiter.startRefilling();
+		limiter.setThreadPriority(RateLimiter.REQUEST);
+		long start = System.nanoTime();
+		CompletableFuture<Void> permit = limiter.limitRateAsync();
+		permit.get(1, TimeUnit.SECONDS);
+		assertTrue(System.nanoTime() - start >= RateLimiter.PERMIT_INTERVAL_NANOS / 2);
+	}
 }
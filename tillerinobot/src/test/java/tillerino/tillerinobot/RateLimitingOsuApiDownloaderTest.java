@@ -0,0 +1,308 @@
+package tillerino.tillerinobot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import javax.ws.rs.ServerErrorException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tillerino.osuApiModel.Downloader;
+import org.tillerino.osuApiModel.OsuApiBeatmap;
+import org.tillerino.osuApiModel.OsuApiUser;
+
+import com.google.common.base.Ticker;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpServer;
+
+public class RateLimitingOsuApiDownloaderTest {
+	AtomicLong time = new AtomicLong();
+
+	List<String> calls = Collections.synchronizedList(new ArrayList<>());
+
+	List<CompletableFuture<JsonElement>> asyncCalls = Collections.synchronizedList(new ArrayList<>());
+
+	CountDownLatch release = new CountDownLatch(0);
+
+	IOException failure = null;
+
+	ExecutorService exec = Executors.newCachedThreadPool();
+
+	RateLimiter limiter = new RateLimiter();
+
+	RateLimitingOsuApiDownloader downloader = downloader(limiter);
+
+	@Before
+	public void addPermits() {
+		// enough for every priority
+		IntStream.range(0, 200).forEach(x -> limiter.addPermit());
+	}
+
+	@After
+	public void stopExec() {
+		exec.shutdownNow();
+	}
+
+	@Test
+	public void testOverload() throws Exception {
+		assertThat(RateLimitingOsuApiDownloader.isOverload(new IOException("response code 429"))).isTrue();
+		assertThat(RateLimitingOsuApiDownloader.isOverload(
+				new IOException("response code 522 for https://osu.ppy.sh/api/get_user", new IOException()))).isTrue();
+		assertThat(RateLimitingOsuApiDownloader.isOverload(new SocketTimeoutException())).isTrue();
+		assertThat(RateLimitingOsuApiDownloader.isOverload(new ServerErrorException(504))).isTrue();
+		assertThat(RateLimitingOsuApiDownloader.isOverload(
+				new IOException("wrapped", new IOException("Premature EOF")))).isTrue();
+	}
+
+	@Test
+	public void testNoOverload() throws Exception {
+		assertThat(RateLimitingOsuApiDownloader.isOverload(new IOException("response code 404"))).isFalse();
+		assertThat(RateLimitingOsuApiDownloader.isOverload(new IOException())).isFalse();
+		assertThat(RateLimitingOsuApiDownloader.isOverload(new RuntimeException("Unable to parse response"))).isFalse();
+	}
+
+	@Test
+	public void testCachedPerCommand() throws Exception {
+		downloader.get(Downloader.GET_USER, "u", "1");
+		downloader.get(Downloader.GET_USER, "u", "1");
+		downloader.get(Downloader.GET_USER, "u", "2");
+		assertThat(calls).containsExactly("get_user [u, 1]", "get_user [u, 2]");
+		assertThat(downloader.getCacheHits()).isEqualTo(1);
+
+		time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		downloader.get(Downloader.GET_USER, "u", "1");
+		assertThat(calls).hasSize(3);
+
+		// not cached at all
+		downloader.get("get_match", "mp", "1");
+		downloader.get("get_match", "mp", "1");
+		assertThat(calls).hasSize(5);
+	}
+
+	@Test
+	public void testReturnsCopies() throws Exception {
+		JsonArray first = downloader.get(Downloader.GET_BEATMAPS, "b", "1").getAsJsonArray();
+		first.add(new JsonPrimitive("modified"));
+		assertThat(downloader.get(Downloader.GET_BEATMAPS, "b", "1").getAsJsonArray()).hasSize(1);
+	}
+
+	@Test
+	public void testConcurrentCallsAreCoalesced() throws Exception {
+		release = new CountDownLatch(1);
+		Future<JsonElement> first = exec.submit(() -> downloader.get("get_match", "mp", "1"));
+		while (calls.isEmpty()) {
+			Thread.sleep(1);
+		}
+		FutureTask<JsonElement> second = new FutureTask<>(() -> downloader.get("get_match", "mp", "1"));
+		Thread secondThread = new Thread(second);
+		secondThread.start();
+		// wait for the second call to join the first
+		while (secondThread.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+		assertThat(first.get()).isEqualTo(second.get());
+		assertThat(calls).hasSize(1);
+
+		// done: the next call goes to the API again
+		downloader.get("get_match", "mp", "1");
+		assertThat(calls).hasSize(2);
+	}
+
+	@Test
+	public void testRequestDoesNotJoinMaintenanceCallWaitingForPermit() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		RateLimitingOsuApiDownloader downloader = downloader(limiter);
+		// only requests can take this
+		limiter.addPermit();
+		FutureTask<JsonElement> maintenance = new FutureTask<>(() -> downloader.get("get_match", "mp", "1"));
+		Thread maintenanceThread = new Thread(maintenance);
+		maintenanceThread.start();
+		// wait for the maintenance call to block on its permit
+		while (maintenanceThread.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+
+		limiter.setThreadPriority(RateLimiter.REQUEST);
+		try {
+			assertThat(downloader.get("get_match", "mp", "1")).isNotNull();
+		} finally {
+			limiter.clearThreadPriority();
+		}
+		assertThat(calls).hasSize(1);
+		assertThat(maintenance).isNotDone();
+
+		// fill the buckets up to the one for maintenance
+		IntStream.range(0, 101).forEach(x -> limiter.addPermit());
+		assertThat(maintenance.get()).isNotNull();
+		assertThat(calls).hasSize(2);
+	}
+
+	@Test
+	public void testErrorsAreNotCached() throws Exception {
+		failure = new IOException("response code 500");
+		assertThatThrownBy(() -> downloader.get(Downloader.GET_USER, "u", "1")).isSameAs(failure);
+		failure = null;
+		downloader.get(Downloader.GET_USER, "u", "1");
+		assertThat(calls).hasSize(2);
+	}
+
+	@Test
+	public void testAsyncCallsAreCoalescedAndCached() throws Exception {
+		CompletableFuture<JsonElement> first = downloader.getAsync(Downloader.GET_USER, "u", "1");
+		CompletableFuture<JsonElement> second = downloader.getAsync(Downloader.GET_USER, "u", "1");
+		assertThat(asyncCalls).hasSize(1);
+		assertThat(first).isNotDone();
+
+		asyncCalls.get(0).complete(new JsonArray());
+		assertThat(first.get()).isEqualTo(second.get()).isNotSameAs(second.get());
+
+		// shared with the blocking method
+		assertThat(downloader.getAsync(Downloader.GET_USER, "u", "1")).isDone();
+		downloader.get(Downloader.GET_USER, "u", "1");
+		assertThat(asyncCalls).hasSize(1);
+		assertThat(calls).isEmpty();
+		assertThat(downloader.getCacheHits()).isEqualTo(2);
+
+		// not cached at all
+		downloader.getAsync("get_match", "mp", "1");
+		asyncCalls.get(1).complete(new JsonArray());
+		downloader.getAsync("get_match", "mp", "1");
+		assertThat(asyncCalls).hasSize(3);
+	}
+
+	@Test
+	public void testAsyncCallsWaitingForPermitAreOnlyJoinedByLowerPriorities() throws Exception {
+		RateLimiter limiter = new RateLimiter();
+		RateLimitingOsuApiDownloader downloader = downloader(limiter);
+		limiter.addPermit();
+
+		CompletableFuture<JsonElement> maintenance = downloader.getAsync(Downloader.GET_USER, "u", "1");
+		assertThat(asyncCalls).isEmpty();
+
+		limiter.setThreadPriority(RateLimiter.REQUEST);
+		CompletableFuture<JsonElement> request;
+		try {
+			request = downloader.getAsync(Downloader.GET_USER, "u", "1");
+		} finally {
+			limiter.clearThreadPriority();
+		}
+		assertThat(asyncCalls).hasSize(1);
+
+		// joins the call of the request
+		CompletableFuture<JsonElement> joined = downloader.getAsync(Downloader.GET_USER, "u", "1");
+		asyncCalls.get(0).complete(new JsonArray());
+		assertThat(request).isDone();
+		assertThat(joined).isDone();
+		assertThat(maintenance).isNotDone();
+
+		IntStream.range(0, 101).forEach(x -> limiter.addPermit());
+		assertThat(asyncCalls).hasSize(2);
+		asyncCalls.get(1).complete(new JsonArray());
+		assertThat(maintenance).isDone();
+	}
+
+	@Test
+	public void testAsyncErrorsAreNotCached() throws Exception {
+		CompletableFuture<JsonElement> call = downloader.getAsync(Downloader.GET_USER, "u", "1");
+		failure = new IOException("response code 500");
+		asyncCalls.get(0).completeExceptionally(failure);
+		assertThatThrownBy(call::get).isInstanceOf(ExecutionException.class).hasCause(failure);
+
+		downloader.getAsync(Downloader.GET_USER, "u", "1");
+		assertThat(asyncCalls).hasSize(2);
+	}
+
+	@Test
+	public void testAsyncHttp() throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/api/get_user", exchange -> {
+			byte[] body = "[]".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/api/get_beatmaps", exchange -> {
+			exchange.sendResponseHeaders(429, -1);
+			exchange.close();
+		});
+		server.start();
+		try {
+			RateLimiter limiter = new RateLimiter();
+			limiter.setThreadPriority(RateLimiter.REQUEST);
+			IntStream.range(0, 10).forEach(x -> limiter.addPermit());
+			RateLimitingOsuApiDownloader http = new RateLimitingOsuApiDownloader(
+					new URL("http://localhost:" + server.getAddress().getPort() + "/api/"), "key", limiter);
+
+			assertThat(http.getUserAsync(1, 0, OsuApiUser.class).get(5, TimeUnit.SECONDS)).isNull();
+			assertThatThrownBy(() -> http.getBeatmapAsync(1, 0, OsuApiBeatmap.class).get(5, TimeUnit.SECONDS))
+					.hasCauseInstanceOf(IOException.class)
+					.hasMessageContaining("response code 429");
+			assertThat(http.getApiCalls()).isEqualTo(2);
+			assertThat(limiter.getBackoffs()).isEqualTo(1);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private RateLimitingOsuApiDownloader downloader(RateLimiter limiter) {
+		try {
+			return new RateLimitingOsuApiDownloader(new URL(Downloader.API_BASE_URL), "key", limiter,
+					new Ticker() {
+						@Override
+						public long read() {
+							return time.get();
+						}
+					}) {
+				@Override
+				JsonElement call(String command, String... parameters) throws IOException {
+					calls.add(command + " " + List.of(parameters));
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new AssertionError(e);
+					}
+					if (failure != null) {
+						throw failure;
+					}
+					JsonArray response = new JsonArray();
+					response.add(new JsonPrimitive(command));
+					return response;
+				}
+
+				@Override
+				CompletableFuture<JsonElement> callAsync(String command, String... parameters) {
+					CompletableFuture<JsonElement> call = new CompletableFuture<>();
+					asyncCalls.add(call);
+					return call;
+				}
+			};
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package tillerino.tillerinobot.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BeatmapFileStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	BeatmapFileStore store;
+
+	@Before
+	public void createStore() throws Exception {
+		store = new BeatmapFileStore(folder.getRoot().toPath().resolve("beatmaps"));
+	}
+
+	@Test
+	public void testPutAndGet() throws Exception {
+		byte[] file = "osu file format v14".getBytes(UTF_8);
+		String md5 = md5Hex(file);
+		assertThat(store.contains(md5)).isFalse();
+		assertThat(store.get(md5)).isEmpty();
+
+		store.put(md5, file);
+
+		assertThat(store.contains(md5)).isTrue();
+		ByteBuffer buffer = store.get(md5).get();
+		assertThat(buffer.isReadOnly()).isTrue();
+		assertThat(UTF_8.decode(buffer).toString()).isEqualTo("osu file format v14");
+		// no temporary files left over
+		assertThat(folder.getRoot().toPath().resolve("beatmaps").resolve(md5.substring(0, 2)).toFile().list())
+			.containsExactly(md5);
+	}
+
+	@Test
+	public void testWrongHash() throws Exception {
+		assertThatThrownBy(() -> store.put(md5Hex("other"), "file".getBytes(UTF_8)))
+			.isInstanceOf(IllegalArgumentException.class);
+		assertThat(store.contains(md5Hex("other"))).isFalse();
+	}
+
+	@Test
+	public void testNotAHash() throws Exception {
+		assertThatThrownBy(() -> store.get("../../etc/passwd")).isInstanceOf(IllegalArgumentException.class);
+	}
+}
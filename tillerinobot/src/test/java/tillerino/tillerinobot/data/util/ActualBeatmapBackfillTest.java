@@ -0,0 +1,93 @@
+package tillerino.tillerinobot.data.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Test;
+
+import tillerino.tillerinobot.AbstractDatabaseTest;
+import tillerino.tillerinobot.data.ActualBeatmap;
+
+public class ActualBeatmapBackfillTest extends AbstractDatabaseTest {
+	@Inject
+	ActualBeatmapBackfill backfill;
+
+	@After
+	public void deleteBeatmaps() {
+		backfill.tidyUp(false);
+		beatmapFilesRepo.deleteAll();
+	}
+
+	@Test
+	public void testFixesRow() throws Exception {
+		beatmapFilesRepo.save(new ActualBeatmap(1, "file 1".getBytes(UTF_8), 1, null));
+
+		assertThat(backfill.fix(1)).isTrue();
+		assertThat(backfill.fix(1)).isFalse();
+		assertThat(backfill.fix(2)).isFalse();
+
+		// the backfill works on its own entity manager
+		em.clear();
+
+		ActualBeatmap beatmap = beatmapFilesRepo.findById(1).get();
+		assertThat(beatmap.getHash()).isEqualTo(md5Hex("file 1"));
+		assertThat(beatmap.isCompressed()).isTrue();
+		assertThat(beatmap.getFileContent()).isEqualTo("file 1".getBytes(UTF_8));
+	}
+
+	@Test
+	public void testWalksTable() throws Exception {
+		for (int i = 1; i <= ActualBeatmapBackfill.BATCH_SIZE + 1; i++) {
+			// missing hashes, empty hashes and uncompressed files
+			ActualBeatmap beatmap = new ActualBeatmap(i, null, 1, i % 3 == 0 ? md5Hex("file " + i) : i % 3 == 1 ? null : "");
+			if (i % 3 == 0) {
+				beatmap.setContent(("file " + i).getBytes(UTF_8));
+			} else {
+				beatmap.setFileContent(("file " + i).getBytes(UTF_8));
+			}
+			beatmapFilesRepo.save(beatmap);
+		}
+		ActualBeatmap alreadyFixed = new ActualBeatmap(1000, null, 1, md5Hex("file 1000"));
+		alreadyFixed.setFileContent("file 1000".getBytes(UTF_8));
+		beatmapFilesRepo.save(alreadyFixed);
+
+		assertThat(backfill.fixBatch()).isEqualTo(ActualBeatmapBackfill.BATCH_SIZE);
+		assertThat(backfill.fixBatch()).isEqualTo(1);
+		assertThat(backfill.fixBatch()).isEqualTo(-1);
+
+		// the backfill works on its own entity manager
+		em.clear();
+
+		assertThat(beatmapFilesRepo.findAll()).allSatisfy(beatmap -> {
+			assertThat(beatmap.getHash()).isEqualTo(md5Hex("file " + beatmap.getBeatmapid()));
+			assertThat(beatmap.isCompressed()).isTrue();
+			assertThat(new String(beatmap.getFileContent(), UTF_8)).isEqualTo("file " + beatmap.getBeatmapid());
+		});
+	}
+
+	@Test
+	public void testDoesNotOverwriteNewDownload() throws Exception {
+		beatmapFilesRepo.save(new ActualBeatmap(1, "old file".getBytes(UTF_8), 1, null));
+
+		// the file is downloaded again after the backfill read the old row
+		ActualBeatmap downloaded = new ActualBeatmap();
+		downloaded.setBeatmapid(1);
+		downloaded.setFileContent("new file".getBytes(UTF_8));
+		downloaded.setDownloaded(2);
+		downloaded.setHash(md5Hex("new file"));
+		beatmapFilesRepo.save(downloaded);
+
+		assertThat(em.ensureTransaction(
+				() -> beatmapFilesRepo.updateFile(1, "old file".getBytes(UTF_8), md5Hex("old file"), 1))).isZero();
+
+		em.clear();
+
+		ActualBeatmap beatmap = beatmapFilesRepo.findById(1).get();
+		assertThat(beatmap.getHash()).isEqualTo(md5Hex("new file"));
+		assertThat(beatmap.getFileContent()).isEqualTo("new file".getBytes(UTF_8));
+	}
+}
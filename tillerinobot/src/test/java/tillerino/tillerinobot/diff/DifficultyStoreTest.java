@@ -0,0 +1,88 @@
+package tillerino.tillerinobot.diff;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Test;
+import org.tillerino.osuApiModel.Mods;
+
+import tillerino.tillerinobot.AbstractDatabaseTest;
+import tillerino.tillerinobot.data.BeatmapDifficulty;
+import tillerino.tillerinobot.data.repos.BeatmapDifficultyRepository;
+import tillerino.tillerinobot.diff.DifficultyStore.BeatmapContent;
+
+public class DifficultyStoreTest extends AbstractDatabaseTest {
+	static final String FILE = "/Fujijo Seitokai Shikkou-bu - Best FriendS -TV Size- (Flask) [Fycho's Insane].osu";
+
+	@Inject
+	BeatmapDifficultyRepository repository;
+
+	DifficultyCalculator calculator = spy(new Koohii());
+
+	BeatmapContent content = () -> {
+		try (InputStream is = getClass().getResourceAsStream(FILE)) {
+			return ByteBuffer.wrap(is.readAllBytes());
+		}
+	};
+
+	@After
+	public void deleteDifficulties() {
+		repository.deleteAll();
+	}
+
+	@Test
+	public void testCalculatedOnce() throws Exception {
+		DifficultyStore store = new DifficultyStore(repository, calculator);
+
+		DifficultyProperties first = store.get("hash", content, Mods.getMask(Mods.DoubleTime));
+		// Hidden does not affect the difficulty
+		DifficultyProperties second = store.get("hash", content, Mods.getMask(Mods.DoubleTime, Mods.Hidden));
+
+		verify(calculator).calculate(any(ByteBuffer.class), any());
+		assertThat(second).isSameAs(first);
+		assertThat(first.getAim()).isGreaterThan(new Koohii().calculate(content.load(), Collections.emptyList()).getAim());
+	}
+
+	@Test
+	public void testLoadedFromDatabase() throws Exception {
+		DifficultyProperties calculated = new DifficultyStore(repository, calculator).get("hash", content, 0);
+
+		// simulate a restart
+		DifficultyProperties loaded = new DifficultyStore(repository, calculator).get("hash", content, 0);
+
+		verify(calculator).calculate(any(ByteBuffer.class), any());
+		assertThat(loaded).isEqualTo(calculated);
+		// the cache must not hand out the entities of the loading thread
+		assertThat(calculated).isNotInstanceOf(BeatmapDifficulty.class);
+		assertThat(loaded).isNotInstanceOf(BeatmapDifficulty.class);
+		assertThat(repository.findById(new BeatmapDifficulty.Key("hash", 0))).isPresent();
+	}
+
+	@Test
+	public void testKeyedByHashAndMods() throws Exception {
+		DifficultyStore store = new DifficultyStore(repository, calculator);
+
+		store.get("hash", content, 0);
+		store.get("hash", content, Mods.getMask(Mods.HardRock));
+		store.get("other", content, 0);
+
+		verify(calculator, times(3)).calculate(any(ByteBuffer.class), any());
+		assertThat(repository.count()).isEqualTo(3);
+	}
+
+	@Test
+	public void testDifficultyMods() throws Exception {
+		assertThat(DifficultyStore.getDifficultyMods(Mods.getMask(Mods.Nightcore, Mods.Hidden, Mods.NoFail)))
+			.isEqualTo(DifficultyStore.getDifficultyMods(Mods.getMask(Mods.DoubleTime)));
+	}
+}
@@ -0,0 +1,74 @@
+package tillerino.tillerinobot.diff;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.tillerino.osuApiModel.Mods.DoubleTime;
+import static org.tillerino.osuApiModel.Mods.HardRock;
+import static org.tillerino.osuApiModel.Mods.Hidden;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.tillerino.osuApiModel.Mods;
+
+/**
+ * Calculates the difficulty of FREEDOM DiVE for the usual mod combinations,
+ * once per mods and once with {@link Koohii#calculateAll(InputStream, List)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KoohiiBenchmark {
+	static final List<Collection<Mods>> MODS = asList(emptyList(), asList(HardRock), asList(DoubleTime),
+			asList(Hidden), asList(Hidden, HardRock), asList(Hidden, DoubleTime));
+
+	Koohii koohii = new Koohii();
+
+	byte[] content;
+
+	@Setup(Level.Trial)
+	public void loadBeatmap() throws IOException {
+		try (InputStream is = getClass().getResourceAsStream("/xi - FREEDOM DiVE (Nakagawa-Kanon) [FOUR DIMENSIONS].osu")) {
+			content = is.readAllBytes();
+		}
+	}
+
+	@Benchmark
+	public List<DifficultyProperties> separately() throws Exception {
+		List<DifficultyProperties> difficulties = new ArrayList<>();
+		for (Collection<Mods> mods : MODS) {
+			difficulties.add(koohii.calculate(new ByteArrayInputStream(content), mods));
+		}
+		return difficulties;
+	}
+
+	@Benchmark
+	public List<DifficultyProperties> calculateAll() throws Exception {
+		return koohii.calculateAll(new ByteArrayInputStream(content), MODS);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(KoohiiBenchmark.class.getSimpleName()).build()).run();
+	}
+}
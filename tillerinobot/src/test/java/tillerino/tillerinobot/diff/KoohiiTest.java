@@ -3,12 +3,17 @@ package tillerino.tillerinobot.diff;
 import static org.assertj.core.api.Assertions.*;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.junit.Rule;
 import org.junit.Test;
+import org.tillerino.osuApiModel.Mods;
 
 public class KoohiiTest {
 	@Rule
@@ -39,4 +44,35 @@ public class KoohiiTest {
 			softly.assertThat(diff.getMaxCombo()).as("max max combo").isEqualTo(2385);
 		}
 	}
+
+	@Test
+	public void testCalculateAllMatchesCalculate() throws Exception {
+		String file = "/xi - FREEDOM DiVE (Nakagawa-Kanon) [FOUR DIMENSIONS].osu";
+		List<Collection<Mods>> mods = KoohiiBenchmark.MODS;
+		List<DifficultyProperties> all;
+		try (InputStream is = getClass().getResourceAsStream(file)) {
+			all = new Koohii().calculateAll(is, mods);
+		}
+		assertThat(all).hasSameSizeAs(mods);
+		for (int i = 0; i < mods.size(); i++) {
+			try (InputStream is = getClass().getResourceAsStream(file)) {
+				assertThat(all.get(i)).as(mods.get(i).toString())
+					.isEqualTo(new Koohii().calculate(is, mods.get(i)));
+			}
+		}
+		assertThat(all.get(2).getAim()).isNotEqualTo(all.get(0).getAim());
+	}
+
+	@Test
+	public void testByteBuffer() throws Exception {
+		for (String file : new String[] { "/xi - FREEDOM DiVE (Nakagawa-Kanon) [FOUR DIMENSIONS].osu",
+				"/Fujijo Seitokai Shikkou-bu - Best FriendS -TV Size- (Flask) [Fycho's Insane].osu" }) {
+			byte[] bytes;
+			try (InputStream is = getClass().getResourceAsStream(file)) {
+				bytes = is.readAllBytes();
+			}
+			assertThat(new Koohii().calculate(ByteBuffer.wrap(bytes), Collections.emptyList()))
+				.isEqualTo(new Koohii().calculate(new ByteArrayInputStream(bytes), Collections.emptyList()));
+		}
+	}
 }
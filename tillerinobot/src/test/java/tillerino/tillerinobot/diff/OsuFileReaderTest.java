@@ -0,0 +1,112 @@
+package tillerino.tillerinobot.diff;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class OsuFileReaderTest {
+	static final String FILE = "osu file format v14\r\n"
+			+ "\r\n"
+			+ "[General]\r\n"
+			+ "Mode: 0\n"
+			+ "[Events]\r\n"
+			+ "//Storyboard Layer 0 (Background)\r\n"
+			+ "Sprite,Background,Centre,\"sb/bg.jpg\",320,240\r\n"
+			+ "[Metadata]\r"
+			+ "Title:Tëst\r\n"
+			+ " [Colours]\n"
+			+ "Combo1 : 255,128,0\n"
+			+ "[HitObjects]\n"
+			+ "256,192,1000,1,0\n";
+
+	static List<String> readAll(BufferedReader reader) throws Exception {
+		List<String> lines = new ArrayList<>();
+		for (String line; (line = reader.readLine()) != null;) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	static BufferedReader reader(ByteBuffer content) {
+		return new BufferedReader(new OsuFileReader(content));
+	}
+
+	@Test
+	public void testLinesAndSkippedSections() throws Exception {
+		List<String> expected = new BufferedReader(new StringReader(FILE)).lines()
+				.filter(line -> !line.contains("Storyboard") && !line.contains("Sprite") && !line.contains("Combo1")
+						&& !line.contains("[Events]") && !line.contains("[Colours]"))
+				.collect(Collectors.toList());
+
+		assertThat(readAll(reader(ByteBuffer.wrap(FILE.getBytes(UTF_8))))).isEqualTo(expected)
+			.contains("Title:Tëst", "[HitObjects]");
+	}
+
+	@Test
+	public void testDirectBuffer() throws Exception {
+		byte[] bytes = FILE.getBytes(UTF_8);
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+
+		assertThat(readAll(reader(direct)))
+			.isEqualTo(readAll(reader(ByteBuffer.wrap(bytes))));
+		assertThat(direct.position()).isZero();
+	}
+
+	@Test
+	public void testSameAsBufferedReader() throws Exception {
+		String file = "/xi - FREEDOM DiVE (Nakagawa-Kanon) [FOUR DIMENSIONS].osu";
+		byte[] bytes;
+		try (InputStream is = getClass().getResourceAsStream(file)) {
+			bytes = is.readAllBytes();
+		}
+		List<String> expected = new ArrayList<>();
+		boolean skipping = false;
+		for (String line : readAll(new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(file), UTF_8)))) {
+			if (line.trim().startsWith("[")) {
+				skipping = OsuFileReader.SKIPPED_SECTIONS.contains(line.trim());
+			}
+			if (!skipping) {
+				expected.add(line);
+			}
+		}
+
+		assertThat(readAll(reader(ByteBuffer.wrap(bytes)))).isEqualTo(expected);
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		String expected = String.join("\n", readAll(reader(ByteBuffer.wrap(FILE.getBytes(UTF_8))))) + "\n";
+
+		// one character at a time
+		StringBuilder chars = new StringBuilder();
+		try (OsuFileReader reader = new OsuFileReader(ByteBuffer.wrap(FILE.getBytes(UTF_8)))) {
+			for (int c; (c = reader.read()) >= 0;) {
+				chars.append((char) c);
+			}
+			assertThat(reader.ready()).isFalse();
+		}
+		assertThat(chars.toString()).isEqualTo(expected);
+
+		// across lines
+		StringWriter all = new StringWriter();
+		new OsuFileReader(ByteBuffer.wrap(FILE.getBytes(UTF_8))).transferTo(all);
+		assertThat(all.toString()).isEqualTo(expected);
+
+		OsuFileReader reader = new OsuFileReader(ByteBuffer.wrap(FILE.getBytes(UTF_8)));
+		assertThat(reader.skip(expected.indexOf("Title"))).isEqualTo(expected.indexOf("Title"));
+		assertThat(reader.ready()).isTrue();
+		assertThat(new BufferedReader(reader).readLine()).isEqualTo("Title:Tëst");
+	}
+}
@@ -0,0 +1,98 @@
+package tillerino.tillerinobot.diff;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.tillerino.osuApiModel.Mods;
+import org.tillerino.osuApiModel.types.BitwiseMods;
+
+import tillerino.tillerinobot.BeatmapMetaTest;
+
+/**
+ * Measures a single pp computation. Run {@link #main(String[])} to check that
+ * the static path does not allocate: it runs with the GC profiler and fails if
+ * any of the allocation-free benchmarks allocates per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsuScoreBenchmark {
+	BeatmapImpl beatmap;
+
+	PercentageEstimatesImpl estimates;
+
+	@BitwiseMods
+	long mods = Mods.getMask(Mods.Hidden, Mods.DoubleTime);
+
+	AccuracyDistribution.Mutable dist = new AccuracyDistribution.Mutable();
+
+	/*
+	 * not final so that the JIT cannot fold the computation
+	 */
+	double acc = .9876;
+
+	@Setup(Level.Trial)
+	public void createBeatmap() {
+		estimates = (PercentageEstimatesImpl) BeatmapMetaTest.fakeBeatmapMeta(null).getEstimates();
+		estimates.setMods(mods);
+		beatmap = estimates.getBeatmap();
+	}
+
+	@Benchmark
+	public double computePP() {
+		AccuracyDistribution.get(beatmap.getObjectCount(), 0, acc, dist);
+		return OsuScore.computePP(beatmap, 100, dist.x300, dist.x100, dist.x50, dist.miss, mods);
+	}
+
+	@Benchmark
+	public double exactEstimate() {
+		return estimates.getExactPP(acc);
+	}
+
+	/**
+	 * The previous way: an {@link AccuracyDistribution} and an
+	 * {@link OsuScore} per call.
+	 */
+	@Benchmark
+	public double osuScoreObject() {
+		AccuracyDistribution dist = AccuracyDistribution.get(beatmap.getObjectCount(), 0, acc);
+		return new OsuScore(100, dist.getX300(), dist.getX100(), dist.getX50(), dist.getMiss(), mods)
+				.getPP(beatmap);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Collection<RunResult> results = new Runner(new OptionsBuilder()
+				.include(OsuScoreBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			Result<?> allocated = result.getSecondaryResults().entrySet().stream()
+					.filter(e -> e.getKey().endsWith("gc.alloc.rate.norm"))
+					.findAny().orElseThrow(IllegalStateException::new).getValue();
+			System.out.printf("%s: %.2f bytes/op%n", benchmark, allocated.getScore());
+			if (!benchmark.endsWith("osuScoreObject") && allocated.getScore() >= 1) {
+				throw new AssertionError(benchmark + " allocates");
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package tillerino.tillerinobot.diff;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.Test;
+import org.tillerino.osuApiModel.Mods;
+
+import tillerino.tillerinobot.BeatmapMetaTest;
+
+public class PercentageEstimatesImplTest {
+	PercentageEstimatesImpl estimates = (PercentageEstimatesImpl) BeatmapMetaTest.fakeBeatmapMeta(null).getEstimates();
+
+	@Test
+	public void testTableAgreesOnGrid() throws Exception {
+		for (double acc : new double[] { .8, .9, .95, .98, .99, .995, 1 }) {
+			assertThat(estimates.getPP(acc)).isCloseTo(estimates.getExactPP(acc), within(1E-4));
+		}
+	}
+
+	@Test
+	public void testInterpolation() throws Exception {
+		double lower = estimates.getPP(.975);
+		double upper = estimates.getPP(.976);
+		assertThat(estimates.getPP(.9755)).isCloseTo((lower + upper) / 2, within(1E-4))
+			.isCloseTo(estimates.getExactPP(.9755), within(.5));
+	}
+
+	@Test
+	public void testOutsideTable() throws Exception {
+		assertThat(estimates.getPP(.7)).isEqualTo(estimates.getExactPP(.7));
+	}
+
+	@Test
+	public void testModsResetTable() throws Exception {
+		double doubleTime = estimates.getPP(.98);
+		estimates.setMods(Mods.getMask(Mods.DoubleTime, Mods.HardRock));
+		assertThat(estimates.getPP(.98)).isCloseTo(estimates.getExactPP(.98), within(1E-4)).isNotEqualTo(doubleTime);
+	}
+
+	@Test
+	public void testBatchAgreesWithSingle() throws Exception {
+		double[] accs = { 1, .9876, .95, .75, .3 };
+		for (long mods : new long[] { 0, Mods.getMask(Mods.Hidden, Mods.Flashlight), Mods.getMask(Mods.Relax) }) {
+			estimates.setMods(mods);
+			double[] pps = new double[accs.length];
+			estimates.getPP(accs, pps);
+			for (int i = 0; i < accs.length; i++) {
+				assertThat(pps[i]).isCloseTo(estimates.getExactPP(accs[i]), within(1E-9));
+			}
+		}
+	}
+}
@@ -29,8 +29,8 @@ public class TsundereTest {
 
 		// mock backend and create RecommendationsManager and RecommendHandler based on mocked backend
 		BotBackend backend = mock(BotBackend.class);
-		RecommendHandler handler = new RecommendHandler(new RecommendationsManager(backend, null, null,
-				new RecommendationRequestParser(backend), new TestBackend.TestBeatmapsLoader()),
+		RecommendHandler handler = new RecommendHandler(new RecommendationsManager(backend, null, null, null,
+				new RecommendationRequestParser(backend), new TestBackend.TestBeatmapsLoader(), null, null),
 				mock(LiveActivity.class));
 
 		// mock a user data object and make it return the tsundere object that we're spying on
@@ -0,0 +1,181 @@
+package tillerino.tillerinobot.predicates;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.tillerino.osuApiModel.Mods;
+import org.tillerino.osuApiModel.OsuApiBeatmap;
+
+import tillerino.tillerinobot.BotBackend.BeatmapsLoader;
+import tillerino.tillerinobot.TestBackend.TestBeatmapsLoader;
+import tillerino.tillerinobot.predicates.BeatmapAttributeIndex.Snapshot;
+import tillerino.tillerinobot.recommendations.BareRecommendation;
+
+public class BeatmapAttributeIndexTest {
+	BeatmapsLoader loader = spy(new TestBeatmapsLoader());
+
+	BeatmapAttributeIndex index = new BeatmapAttributeIndex();
+
+	@Test
+	public void testAgreesWithPredicates() throws Exception {
+		int[] beatmapIds = IntStream.range(1, 3000).toArray();
+		long[] mods = IntStream.range(1, 3000).mapToLong(i -> i % 3 == 0 ? 0 : Mods.getMask(Mods.DoubleTime, Mods.HardRock)).toArray();
+		Snapshot attributes = index.ensureLoaded(loader, beatmapIds);
+		assertThat(index.size()).isEqualTo(beatmapIds.length);
+
+		List<NumericPropertyPredicate<?>> predicates = Arrays.asList(
+				new NumericPropertyPredicate<>("", new ApproachRate(), 9, true, 9, true),
+				new NumericPropertyPredicate<>("", new OverallDifficulty(), 5, false, Double.POSITIVE_INFINITY, true),
+				new NumericPropertyPredicate<>("", new CircleSize(), Double.NEGATIVE_INFINITY, true, 4, false),
+				new NumericPropertyPredicate<>("", new BeatsPerMinute(), 150, true, 250, true),
+				new NumericPropertyPredicate<>("", new MapLength(), Double.NEGATIVE_INFINITY, true, 90, true),
+				new NumericPropertyPredicate<>("", new StarDiff(), 3, false, Double.POSITIVE_INFINITY, true));
+
+		for (NumericPropertyPredicate<?> predicate : predicates) {
+			BitSet rejected = new BitSet();
+			assertThat(predicate.testAll(attributes, beatmapIds, mods, rejected)).isTrue();
+			for (int i = 0; i < beatmapIds.length; i++) {
+				OsuApiBeatmap beatmap = loader.getBeatmap(beatmapIds[i]);
+				BareRecommendation recommendation = recommendation(mods[i]);
+				assertThat(predicate.test(recommendation, beatmap)).isEqualTo(!rejected.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testLoadsOnlyMissing() throws Exception {
+		index.ensureLoaded(loader, new int[] { 1, 2 });
+		index.ensureLoaded(loader, new int[] { 1, 2, 3 });
+		index.ensureLoaded(loader, new int[] { 3, 2 });
+
+		verify(loader, times(2)).getBeatmaps(any());
+		verify(loader).getBeatmaps(new int[] { 1, 2 });
+		verify(loader).getBeatmaps(new int[] { 3 });
+	}
+
+	@Test
+	public void testUnknownBeatmapsAreRejected() throws Exception {
+		BitSet rejected = new BitSet();
+		index.ensureLoaded(loader, new int[] { 1 });
+		Snapshot attributes = index.ensureLoaded((beatmapId, mods) -> null, new int[] { 1, 2 });
+
+		attributes.rejectOutside(new int[] { 1, 2, 3 }, new long[3], BeatmapAttributeIndex.Attribute.AR,
+				Double.NEGATIVE_INFINITY, true, Double.POSITIVE_INFINITY, true, rejected);
+
+		assertThat(rejected.stream()).containsExactly(1, 2);
+	}
+
+	@Test
+	public void testNotIndexed() throws Exception {
+		BitSet rejected = new BitSet();
+		assertThat(new NumericPropertyPredicate<>("", new TitleLength(), 1, true, 1, true)
+				.testAll(null, new int[] { 1 }, new long[1], rejected)).isFalse();
+		assertThat(rejected.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testEvictsOldest() throws Exception {
+		index = new BeatmapAttributeIndex(100);
+		index.ensureLoaded(loader, IntStream.rangeClosed(1, 60).toArray());
+		Thread.sleep(2);
+		index.ensureLoaded(loader, IntStream.rangeClosed(61, 90).toArray());
+		assertThat(index.size()).isEqualTo(90);
+
+		// too many: keep the 50 most recent and add the new ones
+		index.ensureLoaded(loader, IntStream.rangeClosed(91, 110).toArray());
+		assertThat(index.size()).isEqualTo(70);
+
+		// the 30 from the second batch and 20 from the first batch survive
+		assertThat(IntStream.rangeClosed(1, 60).filter(index::contains).count()).isEqualTo(20);
+		assertThat(IntStream.rangeClosed(61, 110).allMatch(index::contains)).isTrue();
+	}
+
+	@Test
+	public void testKeepsBeatmapsOfRequest() throws Exception {
+		index = new BeatmapAttributeIndex(100);
+		index.ensureLoaded(loader, IntStream.rangeClosed(1, 60).toArray());
+		Thread.sleep(2);
+		index.ensureLoaded(loader, IntStream.rangeClosed(61, 90).toArray());
+
+		// 1 to 20 are the oldest, but they are part of the request which evicts
+		int[] request = IntStream.concat(IntStream.rangeClosed(1, 20), IntStream.rangeClosed(91, 110)).toArray();
+		Snapshot attributes = index.ensureLoaded(loader, request);
+		assertThat(index.size()).isEqualTo(90);
+		assertThat(IntStream.of(request).allMatch(index::contains)).isTrue();
+		verify(loader).getBeatmaps(IntStream.rangeClosed(91, 110).toArray());
+
+		BitSet rejected = new BitSet();
+		attributes.rejectOutside(request, new long[request.length], BeatmapAttributeIndex.Attribute.AR,
+				Double.NEGATIVE_INFINITY, true, Double.POSITIVE_INFINITY, true, rejected);
+		assertThat(rejected.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testSnapshotIsNotAffectedByEviction() throws Exception {
+		index = new BeatmapAttributeIndex(100);
+		int[] request = IntStream.rangeClosed(1, 20).toArray();
+		Snapshot attributes = index.ensureLoaded(loader, request);
+
+		// other requests drop all of the first one
+		Thread.sleep(2);
+		index.ensureLoaded(loader, IntStream.rangeClosed(21, 80).toArray());
+		index.ensureLoaded(loader, IntStream.rangeClosed(81, 110).toArray());
+		assertThat(IntStream.of(request).noneMatch(index::contains)).isTrue();
+
+		BitSet rejected = new BitSet();
+		attributes.rejectOutside(request, new long[request.length], BeatmapAttributeIndex.Attribute.AR,
+				Double.NEGATIVE_INFINITY, true, Double.POSITIVE_INFINITY, true, rejected);
+		assertThat(rejected.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testShrinks() throws Exception {
+		index = new BeatmapAttributeIndex(100);
+		// a single batch is never cut down
+		index.ensureLoaded(loader, IntStream.rangeClosed(1, 3000).toArray());
+		assertThat(index.size()).isEqualTo(3000);
+		assertThat(index.capacity()).isEqualTo(8192);
+
+		index.ensureLoaded(loader, new int[] { 3001 });
+		assertThat(index.size()).isEqualTo(51);
+		assertThat(index.capacity()).isEqualTo(1024);
+	}
+
+	private static BareRecommendation recommendation(long mods) {
+		return new BareRecommendation() {
+			@Override
+			public double getProbability() {
+				return 1;
+			}
+
+			@Override
+			public Integer getPersonalPP() {
+				return null;
+			}
+
+			@Override
+			public long getMods() {
+				return mods;
+			}
+
+			@Override
+			public long[] getCauses() {
+				return null;
+			}
+
+			@Override
+			public int getBeatmapId() {
+				return 0;
+			}
+		};
+	}
+}
@@ -0,0 +1,64 @@
+package tillerino.tillerinobot.recommendations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class BeatmapIdSetTest {
+	@Test
+	public void testAgreesWithTreeSet() throws Exception {
+		Random random = new Random(1);
+		BeatmapIdSet set = new BeatmapIdSet();
+		TreeSet<Integer> reference = new TreeSet<>();
+		for (int i = 0; i < 20000; i++) {
+			// small range so that there are many collisions and removals
+			int beatmapId = random.nextInt(300000);
+			if (random.nextInt(3) == 0) {
+				assertThat(set.remove(beatmapId)).isEqualTo(reference.remove(beatmapId));
+			} else {
+				assertThat(set.add(beatmapId)).isEqualTo(reference.add(beatmapId));
+			}
+		}
+
+		assertThat(set.size()).isEqualTo(reference.size());
+		assertThat(set.toArray()).containsExactly(reference.stream().mapToInt(x -> x).toArray());
+		for (int beatmapId = 0; beatmapId < 300000; beatmapId++) {
+			assertThat(set.contains(beatmapId)).isEqualTo(reference.contains(beatmapId));
+		}
+	}
+
+	@Test
+	public void testCollectionView() throws Exception {
+		BeatmapIdSet set = new BeatmapIdSet(Arrays.asList(3, 1 << 20, 1));
+
+		assertThat(set.asCollection()).containsExactly(1, 3, 1 << 20);
+		assertThat(set.asCollection().contains(3)).isTrue();
+		assertThat(set.asCollection().contains(2)).isFalse();
+		assertThat(set).isEqualTo(new BeatmapIdSet(Arrays.asList(1, 3, 1 << 20)));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		BeatmapIdSet set = new BeatmapIdSet(Arrays.asList(1, 2));
+		set.clear();
+
+		assertThat(set.isEmpty()).isTrue();
+		assertThat(set.contains(1)).isFalse();
+		assertThat(set.add(1)).isTrue();
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		BeatmapIdSet set = new BeatmapIdSet(Arrays.asList(1, 2, 1 << 20));
+		BeatmapIdSet copy = set.copy();
+		set.remove(1 << 20);
+		copy.add(3);
+
+		assertThat(set.toArray()).containsExactly(1, 2);
+		assertThat(copy.toArray()).containsExactly(1, 2, 3, 1 << 20);
+	}
+}
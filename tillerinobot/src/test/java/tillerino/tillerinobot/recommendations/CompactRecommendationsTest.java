@@ -0,0 +1,37 @@
+package tillerino.tillerinobot.recommendations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CompactRecommendationsTest {
+	@Test
+	public void testRoundTrip() throws Exception {
+		BareRecommendation withPp = mock(BareRecommendation.class);
+		when(withPp.getBeatmapId()).thenReturn(123);
+		when(withPp.getMods()).thenReturn(64L);
+		when(withPp.getProbability()).thenReturn(.25);
+		when(withPp.getPersonalPP()).thenReturn(321);
+		when(withPp.getCauses()).thenReturn(new long[] { 1, 2 });
+		BareRecommendation withoutPp = mock(BareRecommendation.class);
+		when(withoutPp.getMods()).thenReturn(-1L);
+		when(withoutPp.getPersonalPP()).thenReturn(null);
+
+		CompactRecommendations compact = new CompactRecommendations(Arrays.asList(withPp, withoutPp));
+
+		assertThat(compact.size()).isEqualTo(2);
+		assertThat(compact.getProbability(0)).isEqualTo(.25);
+		BareRecommendation first = compact.get(0);
+		assertThat(first.getBeatmapId()).isEqualTo(123);
+		assertThat(first.getMods()).isEqualTo(64L);
+		assertThat(first.getPersonalPP()).isEqualTo(321);
+		assertThat(first.getCauses()).containsExactly(1, 2);
+		BareRecommendation second = compact.get(1);
+		assertThat(second.getMods()).isEqualTo(-1L);
+		assertThat(second.getPersonalPP()).isNull();
+	}
+}
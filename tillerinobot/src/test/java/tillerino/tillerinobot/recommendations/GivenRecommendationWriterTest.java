@@ -0,0 +1,129 @@
+package tillerino.tillerinobot.recommendations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.persistence.PersistenceException;
+
+import org.junit.Test;
+
+import tillerino.tillerinobot.AbstractDatabaseTest;
+import tillerino.tillerinobot.data.GivenRecommendation;
+import tillerino.tillerinobot.data.repos.GivenRecommendationRepository;
+
+public class GivenRecommendationWriterTest extends AbstractDatabaseTest {
+	@Inject
+	GivenRecommendationWriter writer;
+
+	@Test
+	public void testFlush() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			writer.save(new GivenRecommendation(1, i, i, 0));
+		}
+		writer.flush();
+
+		assertThat(writer.getPendingCount()).isZero();
+		assertThat(recommendationsRepo.findByUseridAndHiddenFalseOrderByDateDesc(1))
+			.extracting(GivenRecommendation::getBeatmapid)
+			.containsExactly(2, 1, 0);
+	}
+
+	@Test
+	public void testFullBatchIsWrittenInTheBackground() throws Exception {
+		for (int i = 0; i < GivenRecommendationWriter.MAX_BATCH_SIZE; i++) {
+			writer.save(new GivenRecommendation(2, i, i, 0));
+		}
+
+		await().until(() -> writer.getPendingCount() == 0);
+		// wait for the background flush to complete
+		writer.flush();
+		assertThat(recommendationsRepo.count()).isEqualTo(GivenRecommendationWriter.MAX_BATCH_SIZE);
+	}
+
+	@Test
+	public void testTidyUp() throws Exception {
+		writer.save(new GivenRecommendation(3, 1, 1, 0));
+		writer.tidyUp(false);
+
+		assertThat(recommendationsRepo.count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testFlushUser() throws Exception {
+		writer.save(new GivenRecommendation(4, 1, 1, 0));
+		writer.save(new GivenRecommendation(5, 2, 2, 0));
+		assertThat(writer.getPending(4)).extracting(GivenRecommendation::getBeatmapid).containsExactly(1);
+
+		writer.flush(4);
+		assertThat(writer.getPending(4)).isEmpty();
+		assertThat(writer.getPending(5)).hasSize(1);
+		assertThat(recommendationsRepo.findByUseridAndHiddenFalseOrderByDateDesc(4)).hasSize(1);
+		assertThat(recommendationsRepo.findByUseridAndHiddenFalseOrderByDateDesc(5)).isEmpty();
+		// don't leave anything for the background flush
+		writer.flush();
+	}
+
+	@Test
+	public void testBadRowIsDropped() throws Exception {
+		GivenRecommendationRepository repo = mock(GivenRecommendationRepository.class);
+		List<Integer> saved = new ArrayList<>();
+		AtomicInteger badAttempts = new AtomicInteger();
+		when(repo.saveAll(any())).thenAnswer(x -> {
+			List<GivenRecommendation> batch = x.getArgument(0);
+			if (batch.stream().anyMatch(r -> r.getBeatmapid() < 0)) {
+				badAttempts.incrementAndGet();
+				throw new PersistenceException("bad row");
+			}
+			batch.forEach(r -> saved.add(r.getBeatmapid()));
+			return batch;
+		});
+		GivenRecommendationWriter isolated = new GivenRecommendationWriter(repo, em, emf);
+		try {
+			isolated.save(new GivenRecommendation(6, 1, 1, 0));
+			isolated.save(new GivenRecommendation(6, -1, 2, 0));
+			isolated.save(new GivenRecommendation(6, 3, 3, 0));
+
+			isolated.flush();
+			assertThat(saved).containsExactly(1, 3);
+			// the bad row is retried by the next flush
+			assertThat(isolated.getPending(6)).extracting(GivenRecommendation::getBeatmapid).containsExactly(-1);
+
+			while (isolated.getPendingCount() > 0) {
+				isolated.flush();
+			}
+			assertThat(badAttempts).hasValue(1 + GivenRecommendationWriter.MAX_ATTEMPTS);
+			assertThat(isolated.getDroppedCount()).isEqualTo(1);
+			assertThat(saved).containsExactly(1, 3);
+		} finally {
+			isolated.tidyUp(false);
+		}
+	}
+
+	@Test
+	public void testFlushUserFailsIfRowIsRequeued() throws Exception {
+		GivenRecommendationRepository repo = mock(GivenRecommendationRepository.class);
+		when(repo.saveAll(any())).thenThrow(new PersistenceException("bad row"));
+		GivenRecommendationWriter isolated = new GivenRecommendationWriter(repo, em, emf);
+		try {
+			isolated.save(new GivenRecommendation(7, 1, 1, 0));
+
+			// forgetting or hiding must not go ahead of the queued row
+			assertThatThrownBy(() -> isolated.flush(7)).isInstanceOf(IllegalStateException.class)
+				.hasCauseInstanceOf(PersistenceException.class);
+			assertThat(isolated.getPending(7)).hasSize(1);
+			// other users are not affected
+			isolated.flush(8);
+		} finally {
+			isolated.tidyUp(false);
+		}
+	}
+}
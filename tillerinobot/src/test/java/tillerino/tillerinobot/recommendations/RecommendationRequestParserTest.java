@@ -4,6 +4,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import org.junit.Test;
@@ -31,8 +34,12 @@ public class RecommendationRequestParserTest {
 	private RecommendationRequestParser recommendationRequestParser;
 
 	private RecommendationRequest parse(String settings) throws Exception {
+		return parse(1, settings);
+	}
+
+	private RecommendationRequest parse(int userId, String settings) throws Exception {
 		OsuApiUser user = new OsuApiUser();
-		user.setUserId(1);
+		user.setUserId(userId);
 		return recommendationRequestParser.parseSamplerSettings(user, settings, new Default());
 	}
 
@@ -68,4 +75,42 @@ public class RecommendationRequestParserTest {
 		assertThat(request.getPredicates())
 			.containsExactly(new NumericPropertyPredicate<>("LEN<=150", new MapLength(), Double.NEGATIVE_INFINITY, true, 150D, true));
 	}
+
+	@Test
+	public void testCached() throws Exception {
+		RecommendationRequest request = parse("dt  hr");
+		assertThat(parse(" dt hr ")).isSameAs(request);
+		assertThat(recommendationRequestParser.getParseCacheHits()).isEqualTo(1);
+		assertThat(recommendationRequestParser.getParseCacheMisses()).isEqualTo(1);
+		// no predicates, no need to know if the user is a donator
+		verifyNoInteractions(backend);
+	}
+
+	@Test
+	public void testUnknownUser() throws Exception {
+		assertThat(recommendationRequestParser.parseSamplerSettings(null, "gamma hd", new Default()))
+			.hasFieldOrPropertyWithValue("requestedMods", 8L);
+		assertThatThrownBy(() -> recommendationRequestParser.parseSamplerSettings(null, "STAR=5", new Default()))
+			.isInstanceOf(UserException.class);
+	}
+
+	@Test
+	public void testCachedPredicatesRequireDonator() throws Exception {
+		when(backend.getDonator(1)).thenReturn(1);
+		RecommendationRequest request = parse(1, "STAR=5");
+		assertThat(parse(1, "STAR=5")).isSameAs(request);
+
+		assertThatThrownBy(() -> parse(2, "STAR=5")).isInstanceOf(UserException.class);
+	}
+
+	@Test
+	public void testDonatorInvalidation() throws Exception {
+		assertThatThrownBy(() -> parse("STAR=5")).isInstanceOf(UserException.class);
+		when(backend.getDonator(anyInt())).thenReturn(1);
+		assertThatThrownBy(() -> parse("STAR=5")).isInstanceOf(UserException.class);
+
+		recommendationRequestParser.invalidateDonator(1);
+		assertThat(parse("STAR=5").getPredicates()).hasSize(1);
+		verify(backend, times(2)).getDonator(1);
+	}
 }
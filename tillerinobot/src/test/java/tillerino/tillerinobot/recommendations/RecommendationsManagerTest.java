@@ -8,27 +8,42 @@ import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.inject.Inject;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.tillerino.osuApiModel.Mods;
+import org.tillerino.osuApiModel.OsuApiBeatmap;
 import org.tillerino.osuApiModel.OsuApiUser;
 import org.tillerino.ppaddict.util.TestModule;
 
 import tillerino.tillerinobot.AbstractDatabaseTest;
 import tillerino.tillerinobot.AbstractDatabaseTest.CreateInMemoryDatabaseModule;
+import tillerino.tillerinobot.BotBackend.BeatmapsLoader;
 import tillerino.tillerinobot.TestBackend;
 import tillerino.tillerinobot.UserException;
 import tillerino.tillerinobot.data.GivenRecommendation;
 import tillerino.tillerinobot.lang.Default;
+import tillerino.tillerinobot.predicates.ApproachRate;
+import tillerino.tillerinobot.predicates.ExcludeMod;
+import tillerino.tillerinobot.predicates.NumericPropertyPredicate;
+import tillerino.tillerinobot.predicates.TitleLength;
 
 @TestModule({ CreateInMemoryDatabaseModule.class, TestBackend.Module.class })
 public class RecommendationsManagerTest extends AbstractDatabaseTest {
@@ -80,15 +95,13 @@ public class RecommendationsManagerTest extends AbstractDatabaseTest {
 	public void testSaveRecommendations() throws Exception {
 		manager.saveGivenRecommendation(1015, 16, 64);
 
-		List<GivenRecommendation> saved = manager.loadGivenRecommendations(1015);
+		GivenRecommendations saved = manager.loadGivenRecommendations(1015);
 
 		assertEquals(1, saved.size());
 
-		GivenRecommendation rec = saved.get(0);
-
-		assertEquals(1015, rec.getUserid());
-		assertEquals(16, rec.getBeatmapid());
-		assertEquals(64, rec.getMods());
+		assertEquals(1015, saved.getUserId());
+		assertEquals(16, saved.getBeatmapId(0));
+		assertEquals(64, saved.getMods(0));
 	}
 
 	@Test
@@ -136,13 +149,13 @@ public class RecommendationsManagerTest extends AbstractDatabaseTest {
 	@Test
 	public void defaultSettings() throws Exception {
 		assertThat(manager.getRecommendation(user, "", new Default())).isNotNull();
-		verify(backend).loadRecommendations(user.getUserId(), Collections.emptyList(), Model.GAMMA5, false, 0L);
+		verify(backend).loadRecommendations(user.getUserId(), new BeatmapIdSet(), Model.GAMMA5, false, 0L);
 	}
 
 	@Test
 	public void testGamma5() throws Exception {
 		assertThat(manager.getRecommendation(user, "gamma5", new Default())).isNotNull();
-		verify(backend).loadRecommendations(anyInt(), any(), eq(Model.GAMMA5), anyBoolean(), anyLong());
+		verify(backend).loadRecommendations(anyInt(), any(BeatmapIdSet.class), eq(Model.GAMMA5), anyBoolean(), anyLong());
 	}
 
 	@Test
@@ -151,4 +164,172 @@ public class RecommendationsManagerTest extends AbstractDatabaseTest {
 		user = backend.downloadUser("guy");
 		assertThat(manager.getRecommendation(user, "gamma5", new Default())).isNotNull();
 	}
+
+	@Test
+	public void samplerCacheCounters() throws Exception {
+		manager.getRecommendation(user, "", new Default());
+		manager.getRecommendation(user, null, new Default());
+		manager.getRecommendation(user, "gamma5", new Default());
+
+		assertThat(manager.getSamplerCacheMisses()).isEqualTo(1);
+		assertThat(manager.getSamplerCacheHits()).isEqualTo(2);
+	}
+
+	@Test
+	public void topRecommendations() throws Exception {
+		List<BareRecommendation> candidates = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			// every other candidate has Hidden, probability is the beatmap id
+			candidates.add(new CompactRecommendations.CompactRecommendation(i, i % 2 == 0 ? 0 : 8, null, null, i));
+		}
+		Collections.shuffle(candidates);
+
+		List<BareRecommendation> top = manager.getTopRecommendations(candidates,
+				Collections.singletonList(new ExcludeMod(Mods.Hidden)));
+
+		assertThat(top).hasSize(1000)
+			.extracting(BareRecommendation::getBeatmapId)
+			.containsExactlyElementsOf(() -> IntStream.range(0, 1000).map(i -> 4998 - 2 * i).iterator());
+	}
+
+	@Test
+	public void predicateBeatmapsAreLoadedInOneBatch() throws Exception {
+		BeatmapsLoader loader = mock(BeatmapsLoader.class);
+		when(loader.getBeatmaps(any())).thenAnswer(x -> Arrays.stream(x.<int[]>getArgument(0))
+				.mapToObj(id -> new OsuApiBeatmap()).toArray(OsuApiBeatmap[]::new));
+		RecommendationsManager isolated = new RecommendationsManager(null, null, null, null, null, loader, null, null);
+
+		List<BareRecommendation> candidates = Arrays.asList(
+				new CompactRecommendations.CompactRecommendation(2, 0, null, null, 1),
+				new CompactRecommendations.CompactRecommendation(1, 0, null, null, 1),
+				new CompactRecommendations.CompactRecommendation(2, 8, null, null, 1));
+		assertThat(isolated.getTopRecommendations(candidates, Arrays.asList(new ExcludeMod(Mods.Hidden),
+				new NumericPropertyPredicate<>("", new ApproachRate(), Double.NEGATIVE_INFINITY, true, 10, true))))
+			.hasSize(2);
+
+		verify(loader).getBeatmaps(new int[] { 1, 2 });
+		verify(loader, never()).getBeatmap(anyInt(), anyLong());
+	}
+
+	@Test
+	public void predicateBeatmapsAreOnlyLoadedForTheTop() throws Exception {
+		List<int[]> batches = new ArrayList<>();
+		BeatmapsLoader loader = mock(BeatmapsLoader.class);
+		when(loader.getBeatmaps(any())).thenAnswer(x -> {
+			int[] beatmapIds = x.getArgument(0);
+			batches.add(beatmapIds);
+			return Arrays.stream(beatmapIds).mapToObj(beatmapId -> {
+				OsuApiBeatmap beatmap = new OsuApiBeatmap();
+				// odd beatmaps fail the predicate
+				beatmap.setTitle(beatmapId % 2 == 0 ? "a" : "abc");
+				return beatmap;
+			}).toArray(OsuApiBeatmap[]::new);
+		});
+		RecommendationsManager isolated = new RecommendationsManager(null, null, null, null, null, loader, null, null);
+
+		List<BareRecommendation> candidates = new ArrayList<>();
+		for (int i = 1; i <= 5000; i++) {
+			// probability is the beatmap id
+			candidates.add(new CompactRecommendations.CompactRecommendation(i, 0, null, null, i));
+		}
+		Collections.shuffle(candidates);
+
+		List<BareRecommendation> top = isolated.getTopRecommendations(candidates,
+				Collections.singletonList(new NumericPropertyPredicate<>("", new TitleLength(), 0, true, 1, true)));
+
+		assertThat(top).hasSize(1000)
+			.extracting(BareRecommendation::getBeatmapId)
+			.containsExactlyElementsOf(() -> IntStream.range(0, 1000).map(i -> 5000 - 2 * i).iterator());
+		// the first batch is the top 1000, then it's the missing number
+		assertThat(batches.get(0)).containsExactly(IntStream.rangeClosed(4001, 5000).toArray());
+		assertThat(batches.get(1)).hasSize(500);
+		assertThat(batches.stream().mapToInt(batch -> batch.length).sum())
+			.isLessThanOrEqualTo(2000 + RecommendationsManager.MIN_BEATMAP_BATCH);
+	}
+
+	@Test
+	public void indexIsOnlyLoadedWhenUsed() throws Exception {
+		BeatmapsLoader loader = mock(BeatmapsLoader.class);
+		RecommendationsManager isolated = new RecommendationsManager(null, null, null, null, null, loader, null, null);
+
+		List<BareRecommendation> candidates = Arrays.asList(
+				new CompactRecommendations.CompactRecommendation(1, 0, null, null, 1),
+				new CompactRecommendations.CompactRecommendation(2, 8, null, null, 1));
+		assertThat(isolated.getTopRecommendations(candidates, Collections.singletonList(new ExcludeMod(Mods.Hidden))))
+			.hasSize(1);
+
+		verifyNoInteractions(loader);
+	}
+
+	@Test
+	public void refillSampler() throws Exception {
+		manager.getRecommendation(user, "", new Default());
+		Sampler<BareRecommendation, RecommendationRequest> sampler = manager.samplers.getIfPresent(user.getUserId());
+
+		manager.refillSampler(user.getUserId(), sampler);
+
+		Sampler<BareRecommendation, RecommendationRequest> refilled = manager.samplers.getIfPresent(user.getUserId());
+		assertThat(refilled).isNotSameAs(sampler);
+		assertThat(refilled.getSettings()).isEqualTo(sampler.getSettings());
+		assertThat(manager.getSamplerRefills()).isEqualTo(1);
+		verify(backend, times(2)).loadRecommendations(anyInt(), any(BeatmapIdSet.class), any(), anyBoolean(), anyLong());
+
+		// the user has moved on: the stale sampler must not replace the current one
+		manager.refillSampler(user.getUserId(), sampler);
+		assertThat(manager.samplers.getIfPresent(user.getUserId())).isSameAs(refilled);
+		assertThat(manager.getSamplerRefills()).isEqualTo(1);
+	}
+
+	@Test
+	public void tidyUpStopsRefills() throws Exception {
+		manager.tidyUp(false);
+		assertThat(manager.refillExecutor.isShutdown()).isTrue();
+
+		assertThat(manager.getRecommendation(user, "", new Default())).isNotNull();
+	}
+
+	@Test
+	public void needsRefill() throws Exception {
+		List<Integer> population = IntStream.range(0, RecommendationsManager.MAX_SAMPLER_SIZE).boxed().collect(Collectors.toList());
+		Sampler<Integer, Void> full = new Sampler<>(population, null, x -> 1);
+		long now = System.currentTimeMillis();
+		assertThat(RecommendationsManager.needsRefill(full, now)).isFalse();
+		assertThat(RecommendationsManager.needsRefill(full, now + RecommendationsManager.REFILL_AFTER + 1)).isTrue();
+
+		while (full.remaining() >= RecommendationsManager.REFILL_THRESHOLD) {
+			full.sample();
+		}
+		assertThat(RecommendationsManager.needsRefill(full, now)).isTrue();
+
+		// the backend didn't have more to offer in the first place
+		Sampler<Integer, Void> small = new Sampler<>(population.subList(0, 10), null, x -> 1);
+		assertThat(RecommendationsManager.needsRefill(small, now)).isFalse();
+	}
+
+	@Test
+	public void exclusionsFollowGivenRecommendations() throws Exception {
+		Recommendation recommendation = manager.getRecommendation(user, "", new Default());
+		int beatmapId = recommendation.bareRecommendation.getBeatmapId();
+		assertThat(manager.loadExclusions(user.getUserId()).contains(beatmapId)).isTrue();
+
+		manager.forgetRecommendations(user.getUserId());
+		assertThat(manager.loadExclusions(user.getUserId()).isEmpty()).isTrue();
+	}
+
+	@Test
+	public void givenRecommendationsCacheGauges() throws Exception {
+		manager.saveGivenRecommendation(2001, 16, 64);
+		manager.saveGivenRecommendation(2001, 17, 0);
+		manager.saveGivenRecommendation(2002, 16, 0);
+
+		GivenRecommendations given = manager.loadGivenRecommendations(2001);
+		assertThat(given.size()).isEqualTo(2);
+		assertThat(new int[] { given.getBeatmapId(0), given.getBeatmapId(1) }).containsExactlyInAnyOrder(16, 17);
+		assertThat(given.getExclusions().toArray()).containsExactly(16, 17);
+		manager.loadGivenRecommendations(2002);
+
+		assertThat(manager.getGivenRecommendationsCacheSize()).isEqualTo(2);
+		assertThat(manager.getGivenRecommendationsCacheBytes()).isEqualTo(
+				given.estimatedBytes() + manager.loadGivenRecommendations(2002).estimatedBytes());
+	}
 }
@@ -0,0 +1,115 @@
+package tillerino.tillerinobot.recommendations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link Sampler} with the previous {@link TreeMap}-based
+ * implementation. Each invocation builds a sampler and drains it completely,
+ * which is what a heavy user does over the lifetime of a sampler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplerBenchmark {
+	@Param({ "100", "1000", "10000" })
+	int size;
+
+	List<Double> population;
+
+	@Setup(Level.Trial)
+	public void createPopulation() {
+		Random random = new Random(1);
+		population = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			population.add(random.nextDouble());
+		}
+	}
+
+	@Benchmark
+	public void fenwick(Blackhole blackhole) {
+		Sampler<Double, Void> sampler = new Sampler<>(population, null, Double::doubleValue);
+		while (!sampler.isEmpty()) {
+			blackhole.consume(sampler.sample());
+		}
+	}
+
+	@Benchmark
+	public void treeMap(Blackhole blackhole) {
+		TreeMapSampler<Double> sampler = new TreeMapSampler<>(population, Double::doubleValue);
+		while (!sampler.isEmpty()) {
+			blackhole.consume(sampler.sample());
+		}
+	}
+
+	/**
+	 * The previous implementation of {@link Sampler}, kept for comparison.
+	 */
+	static class TreeMapSampler<T> {
+		private final SortedMap<Double, T> distribution = new TreeMap<>();
+		private double sum = 0;
+		private final Random random = new Random();
+		private final ToDoubleFunction<T> probabilityDistribution;
+
+		TreeMapSampler(Collection<T> population, ToDoubleFunction<T> probabilityDistribution) {
+			for (T elem : population) {
+				sum += probabilityDistribution.applyAsDouble(elem);
+				distribution.put(sum, elem);
+			}
+			this.probabilityDistribution = probabilityDistribution;
+		}
+
+		boolean isEmpty() {
+			return distribution.isEmpty();
+		}
+
+		T sample() {
+			double x = random.nextDouble() * sum;
+			SortedMap<Double, T> rest = distribution.tailMap(x);
+			if (rest.isEmpty()) {
+				return sample();
+			}
+			sum = rest.firstKey();
+			T sample = rest.remove(sum);
+			sum -= probabilityDistribution.applyAsDouble(sample);
+			Collection<T> refill = new ArrayList<>();
+			while (!rest.isEmpty()) {
+				refill.add(rest.remove(rest.firstKey()));
+			}
+			for (T elem : refill) {
+				sum += probabilityDistribution.applyAsDouble(elem);
+				distribution.put(sum, elem);
+			}
+			return sample;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(SamplerBenchmark.class.getSimpleName()).build()).run();
+	}
+}
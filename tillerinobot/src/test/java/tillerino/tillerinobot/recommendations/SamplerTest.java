@@ -0,0 +1,56 @@
+package tillerino.tillerinobot.recommendations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class SamplerTest {
+	@Test
+	public void testSamplesEveryElementOnce() throws Exception {
+		List<Integer> population = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+		Sampler<Integer, String> sampler = new Sampler<>(population, "settings", x -> 1 + x % 7);
+
+		assertThat(sampler.getSettings()).isEqualTo("settings");
+
+		List<Integer> samples = new ArrayList<>();
+		while (!sampler.isEmpty()) {
+			samples.add(sampler.sample());
+		}
+
+		assertThat(samples).containsExactlyInAnyOrderElementsOf(population);
+	}
+
+	@Test
+	public void testZeroWeights() throws Exception {
+		Sampler<Integer, Void> sampler = new Sampler<>(Arrays.asList(0, 1, 2), null, x -> x == 1 ? 1 : 0);
+
+		assertThat(sampler.sample()).isEqualTo(1);
+		assertThat(Arrays.asList(sampler.sample(), sampler.sample())).containsExactlyInAnyOrder(0, 2);
+		assertThat(sampler.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		assertThat(new Sampler<>(Collections.emptyList(), null, x -> 1).isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testDistribution() throws Exception {
+		// element 1 has nine times the weight of element 0
+		int firstIsHeavy = 0;
+		for (int i = 0; i < 10000; i++) {
+			Sampler<Integer, Void> sampler = new Sampler<>(Arrays.asList(0, 1), null, x -> x == 1 ? 9 : 1);
+			if (sampler.sample() == 1) {
+				firstIsHeavy++;
+			}
+		}
+		assertThat(firstIsHeavy).isBetween(8700, 9300);
+	}
+}
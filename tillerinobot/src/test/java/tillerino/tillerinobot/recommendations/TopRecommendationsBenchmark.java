@@ -0,0 +1,104 @@
+package tillerino.tillerinobot.recommendations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.tillerino.osuApiModel.Mods;
+import org.tillerino.osuApiModel.OsuApiBeatmap;
+
+import tillerino.tillerinobot.BotBackend.BeatmapsLoader;
+import tillerino.tillerinobot.predicates.ExcludeMod;
+import tillerino.tillerinobot.predicates.RecommendationPredicate;
+import tillerino.tillerinobot.recommendations.CompactRecommendations.CompactRecommendation;
+
+/**
+ * Compares {@link RecommendationsManager#getTopRecommendations(Collection, List)}
+ * with the previous implementation, which collected and sorted all candidates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopRecommendationsBenchmark {
+	@Param({ "50000" })
+	int size;
+
+	@Param({ "false", "true" })
+	boolean withPredicate;
+
+	List<BareRecommendation> candidates;
+
+	List<RecommendationPredicate> predicates;
+
+	final OsuApiBeatmap beatmap = new OsuApiBeatmap();
+
+	final BeatmapsLoader loader = (beatmapId, mods) -> beatmap;
+
+	final RecommendationsManager manager = new RecommendationsManager(null, null, null, null, null, loader, null, null);
+
+	@Setup(Level.Trial)
+	public void createCandidates() {
+		Random random = new Random(1);
+		candidates = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			candidates.add(new CompactRecommendation(i, random.nextBoolean() ? 0 : 64, null, null, random.nextDouble()));
+		}
+		predicates = withPredicate ? Collections.singletonList(new ExcludeMod(Mods.Hidden))
+				: Collections.emptyList();
+	}
+
+	@Benchmark
+	public List<BareRecommendation> heap() throws Exception {
+		return manager.getTopRecommendations(candidates, predicates);
+	}
+
+	@Benchmark
+	public List<BareRecommendation> sortAll() throws Exception {
+		List<BareRecommendation> list = new ArrayList<>();
+
+		recommendationsLoop: for (BareRecommendation bareRecommendation : candidates) {
+			OsuApiBeatmap b = null;
+			for (RecommendationPredicate predicate : predicates) {
+				if (b == null) {
+					b = loader.getBeatmap(bareRecommendation.getBeatmapId());
+				}
+				if (!predicate.test(bareRecommendation, b)) {
+					continue recommendationsLoop;
+				}
+			}
+			list.add(bareRecommendation);
+		}
+
+		Collections.sort(list, Comparator.comparingDouble(BareRecommendation::getProbability).reversed());
+
+		int resultSize = Math.min(list.size(), 1000);
+		ArrayList<BareRecommendation> arrayList = new ArrayList<>(resultSize);
+		arrayList.addAll(list.subList(0, resultSize));
+		return arrayList;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(TopRecommendationsBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -1,15 +1,27 @@
 package tillerino.tillerinobot.rest;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
 import javax.ws.rs.WebApplicationException;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -17,6 +29,8 @@ import org.tillerino.osuApiModel.OsuApiBeatmap;
 
 import tillerino.tillerinobot.AbstractDatabaseTest;
 import tillerino.tillerinobot.data.ActualBeatmap;
+import tillerino.tillerinobot.data.BeatmapFileStore;
+import tillerino.tillerinobot.data.util.ActualBeatmapBackfill;
 import tillerino.tillerinobot.rest.AbstractBeatmapResource.BeatmapDownloader;
 
 /**
@@ -26,6 +40,9 @@ import tillerino.tillerinobot.rest.AbstractBeatmapResource.BeatmapDownloader;
  */
 @RunWith(MockitoJUnitRunner.class)
 public class AbstractBeatmapResourceTest extends AbstractDatabaseTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Mock
   BeatmapDownloader downloader;
 
@@ -52,6 +69,55 @@ public class AbstractBeatmapResourceTest extends AbstractDatabaseTest {
     beatmap.setFileMd5(md5Hex(content));
     assertEquals(content, resource.getFile());
     verifyNoInteractions(downloader);
+    // without a backfill, the hash is saved on the request
+    assertEquals(md5Hex(content), beatmapFilesRepo.findHashByBeatmapid(12).get().getHash());
+  }
+
+  @Test
+  public void testMissingHashIsBackfilled() throws Exception {
+    String content = "not hashed";
+    ActualBeatmapBackfill backfill = new ActualBeatmapBackfill(beatmapFilesRepo, em, emf);
+    AbstractBeatmapResource backfilling = new AbstractBeatmapResource(beatmapFilesRepo, downloader, beatmap, null, backfill) {
+      @Override
+      public OsuApiBeatmap get() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    // stored uncompressed and without hash for backwards compatibility
+    beatmapFilesRepo.save(new ActualBeatmap(17, content.getBytes(), 1, ""));
+    beatmap.setBeatmapId(17);
+    beatmap.setFileMd5(md5Hex(content));
+    try {
+      assertEquals(content, backfilling.getFile());
+      // the backfill works on its own entity manager
+      await().pollInSameThread().until(() -> {
+        em.clear();
+        return !beatmapFilesRepo.findHashByBeatmapid(17).get().getHash().isEmpty();
+      });
+    } finally {
+      backfill.tidyUp(false);
+    }
+    verifyNoInteractions(downloader);
+
+    ActualBeatmap stored = beatmapFilesRepo.findById(17).get();
+    assertEquals(md5Hex(content), stored.getHash());
+    assertTrue(stored.isCompressed());
+    assertEquals(content, backfilling.getFile());
+  }
+
+  @Test
+  public void testNoRedownloadOnWrongHashWhenRecent() throws Exception {
+    String oldContent = "hello";
+    beatmapFilesRepo.save(new ActualBeatmap(15, oldContent.getBytes(), System.currentTimeMillis(), md5Hex(oldContent)));
+    beatmap.setBeatmapId(15);
+    beatmap.setFileMd5(md5Hex("world"));
+    try {
+      resource.getFile();
+      fail("should have thrown");
+    } catch (WebApplicationException e) {
+      assertEquals(502, e.getResponse().getStatus());
+    }
+    verifyNoInteractions(downloader);
   }
 
   @Test
@@ -86,4 +152,83 @@ public class AbstractBeatmapResourceTest extends AbstractDatabaseTest {
     resource.setFile(correctContent);
     assertEquals(correctContent, resource.getFile());
   }
+
+  @Test
+  public void testStoredCompressed() throws Exception {
+    String content = "osu file format v14\n" + "[HitObjects]\n".repeat(100);
+    beatmap.setBeatmapId(13);
+    beatmap.setFileMd5(md5Hex(content));
+    resource.setFile(content);
+
+    ActualBeatmap stored = beatmapFilesRepo.findById(13).get();
+    assertTrue(stored.isCompressed());
+    assertTrue(stored.getContent().length < content.length() / 10);
+    assertEquals(content, resource.getFile());
+    assertEquals(content, UTF_8.decode(resource.getFileContent()).toString());
+  }
+
+  @Test
+  public void testFileStore() throws Exception {
+    String content = "stored";
+    BeatmapFileStore fileStore = new BeatmapFileStore(folder.getRoot().toPath());
+    AbstractBeatmapResource storing = new AbstractBeatmapResource(beatmapFilesRepo, downloader, beatmap, fileStore) {
+      @Override
+      public OsuApiBeatmap get() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    beatmapFilesRepo.save(new ActualBeatmap(14, content.getBytes(), 1, md5Hex(content)));
+    beatmap.setBeatmapId(14);
+    beatmap.setFileMd5(md5Hex(content));
+
+    assertEquals(content, storing.getFile());
+    assertTrue(fileStore.contains(md5Hex(content)));
+
+    // served from the store from now on
+    beatmapFilesRepo.deleteById(14);
+    assertEquals(content, storing.getFile());
+    verifyNoInteractions(downloader);
+  }
+
+  @Test
+  public void testConcurrentDownloadsAreCoalesced() throws Exception {
+    String content = "downloaded once";
+    beatmap.setBeatmapId(16);
+    beatmap.setFileMd5(md5Hex(content));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(downloader.getActualBeatmap(16)).thenAnswer(invocation -> {
+      started.countDown();
+      release.await();
+      return content;
+    });
+
+    ExecutorService exec = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = exec.submit(() -> getFileWithOwnEntityManager());
+      started.await();
+      Future<String> second = exec.submit(() -> getFileWithOwnEntityManager());
+      // wait until the second request is waiting for the first download
+      while (AbstractBeatmapResource.DOWNLOADS.get(16).getNumberOfDependents() == 0) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      assertEquals(content, first.get());
+      assertEquals(content, second.get());
+    } finally {
+      exec.shutdownNow();
+    }
+    verify(downloader).getActualBeatmap(16);
+    assertTrue(AbstractBeatmapResource.DOWNLOADS.isEmpty());
+  }
+
+  private String getFileWithOwnEntityManager() {
+    EntityManager oldEm = em.setThreadLocalEntityManager(emf.createEntityManager());
+    try {
+      return resource.getFile();
+    } finally {
+      em.closeAndReplace(oldEm);
+    }
+  }
 }
@@ -1,5 +1,6 @@
 package tillerino.tillerinobot.rest;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -20,6 +21,7 @@ import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.assertj.core.api.ListAssert;
@@ -166,6 +168,14 @@ public class ApiTest {
 					.andThen(mdc("apiKey", null)));
 	}
 
+	@Test
+	public void testRateLimiterMetrics() throws Exception {
+		String json = ClientBuilder.newClient().target("http://localhost:" + server.getPort())
+			.path("botinfo").request(MediaType.APPLICATION_JSON).get(String.class);
+		assertThat(json).contains("\"osuApiPermitsPerMinute\":1200", "\"osuApiRequestPermits\":{",
+			"\"waitHistogram\":[0,0,0,0,0,0,0,0,0,0,0,0,0,0]");
+	}
+
 	@Test
 	public void testAuthenticationByParam() throws Throwable {
 		assertThatThrownBy(() -> beatmapDifficulties.getBeatmapInfo(1, 0L, Collections.emptyList(), -1)).isInstanceOf(NotAuthorizedException.class);